@@ -0,0 +1,173 @@
+package photo_renamer;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+public class AutoTagger{
+
+	/**
+	 * The AutoTagger tags images from their metadata instead of from user input. A pool
+	 * of reader threads reads the header of every image (see ImageHeader) and applies
+	 * the TagRules to it; the resulting tags are then given to the PhotoRenamer as one
+	 * batch, so all renames and the serialization of the catalog happen once at the end.
+	 * Reading headers is I/O bound so the pool has more threads than there are cores.
+	 *
+	 * READERS: the number of threads reading headers
+	 *
+	 * renamer: the PhotoRenamer whose images are tagged
+	 *
+	 * rules: the rules used to turn headers into tags
+	 */
+	static final int READERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 4);
+	private PhotoRenamer renamer;
+	private List<TagRule> rules;
+
+	/**
+	 * Instantiates an AutoTagger using the default rules (year taken, camera and
+	 * orientation).
+	 *
+	 * @param renamer: the PhotoRenamer whose images are tagged
+	 */
+	AutoTagger(PhotoRenamer renamer){
+		this(renamer, Arrays.asList(new YearRule(), new CameraRule(), new OrientationRule()));
+	}
+	/**
+	 * Instantiates an AutoTagger using the given rules.
+	 *
+	 * @param renamer: the PhotoRenamer whose images are tagged
+	 * @param rules: the rules used to turn headers into tags
+	 */
+	AutoTagger(PhotoRenamer renamer, List<TagRule> rules){
+		this.renamer = renamer;
+		this.rules = rules;
+	}
+	/**
+	 * Reads the headers of the given images in parallel and adds the tags the rules
+	 * give them. Images that can not be read are skipped.
+	 *
+	 * @param images: the images to tag
+	 * @return the number of images that got at least one new tag
+	 */
+	public int tag(Image[] images){
+		ExecutorService readers = Executors.newFixedThreadPool(READERS);
+		CompletionService<Map.Entry<Image, List<String>>> results = new ExecutorCompletionService<>(readers);
+		for(Image image: images){
+			results.submit(() -> new AbstractMap.SimpleEntry<>(image, tagsFor(image)));
+		}
+		readers.shutdown();
+		Map<Image, String[]> targets = new LinkedHashMap<>();
+		try{
+			for(int i = 0; i < images.length; i++){
+				Map.Entry<Image, List<String>> result = results.take().get();
+				Image image = result.getKey();
+				List<String> found = result.getValue();
+				LinkedHashSet<String> tags = new LinkedHashSet<>(Arrays.asList(image.getCurrTags()));
+				if(tags.addAll(found)){
+					targets.put(image, tags.toArray(new String[tags.size()]));
+				}
+			}
+		}catch(InterruptedException e){
+			readers.shutdownNow();
+			Thread.currentThread().interrupt();
+			return 0;
+		}catch(ExecutionException e){
+			readers.shutdownNow();
+			throw new IllegalStateException(e.getCause());
+		}
+		if(!(targets.isEmpty())){
+			renamer.applyTags(targets);
+		}
+		return targets.size();
+	}
+	/**
+	 * A helper method which reads the header of an image and applies every rule to it.
+	 * An image whose header can not be read (or makes a reader plugin fail) simply
+	 * gets no tags, so one corrupt file does not stop the whole run.
+	 */
+	private List<String> tagsFor(Image image){
+		List<String> tags = new ArrayList<>();
+		ImageHeader header;
+		try{
+			header = ImageHeader.read(image.getImage());
+		}catch(IOException | RuntimeException e){
+			System.out.println("could not read header of " + image);
+			return tags;
+		}
+		for(TagRule rule: rules){
+			String tag = rule.tagFor(header);
+			if(tag != null && !(tags.contains(tag))){
+				tags.add(tag);
+			}
+		}
+		return tags;
+	}
+	/**
+	 * A helper method which turns any text into a tag by keeping only its letters and
+	 * digits (tags may not contain "@" or ".").
+	 */
+	static String toTag(String text){
+		StringBuilder s = new StringBuilder("@");
+		for(char c: text.toCharArray()){
+			if(Character.isLetterOrDigit(c)){
+				s.append(c);
+			}
+		}
+		return s.length() > 1 ? s.toString() : null;
+	}
+
+	/**
+	 * Tags an image with the year it was taken, e.g. "@2016".
+	 */
+	static class YearRule implements TagRule{
+		@Override
+		public String tagFor(ImageHeader header){
+			String date = header.getDateTaken();
+			if(date == null || date.length() < 4 || date.startsWith("0000")){
+				return null;
+			}
+			return toTag(date.substring(0, 4));
+		}
+	}
+	/**
+	 * Tags an image with the first word of the camera model, e.g. "@iPhone" for an
+	 * "iPhone 6s"; the make is used if the model is missing.
+	 */
+	static class CameraRule implements TagRule{
+		@Override
+		public String tagFor(ImageHeader header){
+			String camera = header.getModel() != null ? header.getModel() : header.getMake();
+			if(camera == null){
+				return null;
+			}
+			return toTag(camera.trim().split("\\s+")[0]);
+		}
+	}
+	/**
+	 * Tags an image as "@landscape", "@portrait" or "@square" from its dimensions.
+	 */
+	static class OrientationRule implements TagRule{
+		@Override
+		public String tagFor(ImageHeader header){
+			if(header.getWidth() <= 0 || header.getHeight() <= 0){
+				return null;
+			}
+			if(header.getWidth() > header.getHeight()){
+				return "@landscape";
+			}else if(header.getWidth() < header.getHeight()){
+				return "@portrait";
+			}
+			return "@square";
+		}
+	}
+}
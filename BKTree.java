@@ -0,0 +1,125 @@
+package photo_renamer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+
+public class BKTree<T>{
+
+	/**
+	 * A BKTree (Burkhard-Keller tree) indexes 64 bit hashes by their Hamming distance so
+	 * that all hashes within a given distance of a hash are found without comparing
+	 * against every hash. Every node holds one hash (and the items that have it); its
+	 * children are keyed by their distance to it, and by the triangle inequality a
+	 * search for hashes within d of h only has to visit the children whose key lies
+	 * within d of the distance between h and the node.
+	 *
+	 * root: the first hash added, or null
+	 *
+	 * size: the number of items (of type T) in the tree
+	 */
+	private Node<T> root;
+	private int size;
+
+	/**
+	 * One hash of the tree. Children are kept in two small parallel arrays rather
+	 * than an array of 65 slots, since most nodes only have a few.
+	 */
+	private static class Node<T>{
+		final long hash;
+		final List<T> items = new ArrayList<>(1);
+		int[] distances = new int[0];
+		Node<T>[] children = newArray(0);
+
+		Node(long hash){
+			this.hash = hash;
+		}
+		Node<T> child(int distance){
+			for(int i = 0; i < distances.length; i++){
+				if(distances[i] == distance){
+					return children[i];
+				}
+			}
+			return null;
+		}
+		void addChild(int distance, Node<T> child){
+			distances = Arrays.copyOf(distances, distances.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			distances[distances.length - 1] = distance;
+			children[children.length - 1] = child;
+		}
+		@SuppressWarnings("unchecked") //an array of nodes, never exposed
+		private static <T> Node<T>[] newArray(int length){
+			return (Node<T>[]) new Node<?>[length];
+		}
+	}
+
+	/**
+	 * Adds an item with the given hash.
+	 *
+	 * @param hash: the hash of the item
+	 * @param item: the item
+	 */
+	public void add(long hash, T item){
+		size++;
+		if(root == null){
+			root = new Node<>(hash);
+			root.items.add(item);
+			return;
+		}
+		Node<T> node = root;
+		while(true){
+			int distance = PerceptualHash.distance(hash, node.hash);
+			if(distance == 0){
+				node.items.add(item);
+				return;
+			}
+			Node<T> child = node.child(distance);
+			if(child == null){
+				child = new Node<>(hash);
+				child.items.add(item);
+				node.addChild(distance, child);
+				return;
+			}
+			node = child;
+		}
+	}
+	/**
+	 * Gives every item whose hash is within the given distance of a hash.
+	 *
+	 * @param hash: the hash to search around
+	 * @param maxDistance: the largest Hamming distance to include
+	 * @return the items found, in no particular order
+	 */
+	public List<T> search(long hash, int maxDistance){
+		List<T> found = new ArrayList<>();
+		if(root == null){
+			return found;
+		}
+		Deque<Node<T>> toVisit = new ArrayDeque<>();
+		toVisit.push(root);
+		while(!(toVisit.isEmpty())){
+			Node<T> node = toVisit.pop();
+			int distance = PerceptualHash.distance(hash, node.hash);
+			if(distance <= maxDistance){
+				found.addAll(node.items);
+			}
+			for(int i = 0; i < node.distances.length; i++){
+				if(Math.abs(node.distances[i] - distance) <= maxDistance){
+					toVisit.push(node.children[i]);
+				}
+			}
+		}
+		return found;
+	}
+	/**
+	 * Gives the number of items in the tree.
+	 *
+	 * @return the number of items
+	 */
+	public int size(){
+		return size;
+	}
+}
@@ -0,0 +1,163 @@
+package photo_renamer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+
+public class CatalogClient{
+
+	/**
+	 * The CatalogClient talks to a CatalogServer running on localhost, so a process can
+	 * work on a library without loading its catalog. Connections are reused between
+	 * requests (HTTP keep-alive). See CatalogServer for the requests and their replies.
+	 *
+	 * PROBE_MILLIS: how long to wait for a server to accept a connection when checking
+	 * whether it is still running
+	 *
+	 * base: the address of the server, e.g. "http://127.0.0.1:4711"
+	 * token: the token the server expects with every request
+	 */
+	static final int PROBE_MILLIS = 500;
+	private String base;
+	private String token;
+
+	/**
+	 * Instantiates a CatalogClient for the server listening on the given port.
+	 *
+	 * @param port: the port the server listens on
+	 * @param token: the token the server wrote to its port file
+	 */
+	public CatalogClient(int port, String token){
+		this.base = "http://127.0.0.1:" + port;
+		this.token = token;
+	}
+	/**
+	 * Instantiates a CatalogClient for the server serving the given library.
+	 *
+	 * @param directory: the library
+	 * @return a client for the server of the library
+	 * @throws IOException: thrown if no server is serving the library
+	 */
+	public static CatalogClient forLibrary(File directory) throws IOException{
+		CatalogClient client = running(directory);
+		if(client == null){
+			throw new IOException("no catalog server is running for " + directory);
+		}
+		return client;
+	}
+	/**
+	 * Gives a client for the server serving the given library, if one is running. A
+	 * server that was killed leaves its port file behind; if nothing accepts
+	 * connections on the port written in it (or the file is not a port file of this
+	 * version), the file is deleted.
+	 *
+	 * @param directory: the library
+	 * @return a client for the server of the library, or null if none is running
+	 */
+	static CatalogClient running(File directory){
+		File portFile = CatalogServer.portFile(directory);
+		if(!(portFile.exists())){
+			return null;
+		}
+		try{
+			List<String> lines = Files.readAllLines(portFile.toPath(), StandardCharsets.UTF_8);
+			if(lines.size() >= 2){
+				int port = Integer.parseInt(lines.get(0).trim());
+				try(Socket probe = new Socket()){
+					probe.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), PROBE_MILLIS);
+				}
+				return new CatalogClient(port, lines.get(1).trim());
+			}
+		}catch(IOException | NumberFormatException e){
+			//nothing is listening (or the file is unreadable): the server is gone
+		}
+		System.out.println("removing stale " + portFile);
+		portFile.delete();
+		return null;
+	}
+	public String images() throws IOException{
+		return request("GET", "/images", null);
+	}
+	public String tags() throws IOException{
+		return request("GET", "/tags", null);
+	}
+	public String query(String tag) throws IOException{
+		return request("GET", "/query?tag=" + encode(tag), null);
+	}
+	public String history(String image) throws IOException{
+		return request("GET", "/history?image=" + encode(image), null);
+	}
+	public String names(String image) throws IOException{
+		return request("GET", "/names?image=" + encode(image), null);
+	}
+	public void tag(String image, String tag) throws IOException{
+		request("POST", "/tag?image=" + encode(image) + "&tag=" + encode(tag), "");
+	}
+	public void untag(String image, String tag) throws IOException{
+		request("POST", "/untag?image=" + encode(image) + "&tag=" + encode(tag), "");
+	}
+	public void revert(String image, String name) throws IOException{
+		request("POST", "/revert?image=" + encode(image) + "&name=" + encode(name), "");
+	}
+	/**
+	 * Sends many operations at once; the server saves the catalog once for all of them.
+	 *
+	 * @param operations: lines of the form "op TAB image TAB argument"
+	 * @return one reply line per operation ("ok" or "error ...")
+	 * @throws IOException: thrown if the server could not be reached
+	 */
+	public String batch(List<String> operations) throws IOException{
+		return request("POST", "/batch", String.join("\n", operations) + "\n");
+	}
+	public void shutdown() throws IOException{
+		request("POST", "/shutdown", "");
+	}
+	/**
+	 * A helper method which sends one request and reads the whole reply.
+	 */
+	private String request(String method, String path, String body) throws IOException{
+		HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty(CatalogServer.TOKEN_HEADER, token);
+		if(body != null){
+			connection.setDoOutput(true);
+			try(OutputStream out = connection.getOutputStream()){
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream reply = new ByteArrayOutputStream();
+		if(in != null){
+			try{
+				byte[] buffer = new byte[8192];
+				int n;
+				while((n = in.read(buffer)) > 0){
+					reply.write(buffer, 0, n);
+				}
+			}finally{
+				//closing (rather than disconnecting) keeps the connection alive for reuse
+				in.close();
+			}
+		}
+		String text = new String(reply.toByteArray(), StandardCharsets.UTF_8);
+		if(status != 200){
+			throw new IOException(text.trim());
+		}
+		return text;
+	}
+	private static String encode(String value) throws IOException{
+		return URLEncoder.encode(value, "UTF-8");
+	}
+}
@@ -0,0 +1,205 @@
+package photo_renamer;
+import javax.swing.*;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+
+public class CatalogClientGUI extends JFrame{
+
+	/**
+	 * The CatalogClientGUI is the window shown for a library that is open in a
+	 * CatalogServer. It keeps no catalog of its own: the images and their tags are
+	 * read from the server, and every change is sent to it (changes of several images
+	 * as one "/batch", so the server saves its catalog once). The list is read again
+	 * after every change.
+	 *
+	 * client: talks to the server of the library
+	 *
+	 * model: the images of the library as paths relative to it, with their tags
+	 *
+	 * tasks: runs all requests to the server in the background
+	 *
+	 * all other variables are JButtons which lets the user access the features of the
+	 * program.
+	 */
+	private static final long serialVersionUID = 3862215067391250711L;
+	private final CatalogClient client;
+	private JPanel panel = new JPanel();
+	private JButton addTag = new JButton("Add Tag to Images");
+	private JButton removeTag = new JButton("Remove Tag from Images");
+	private JButton revertName = new JButton("Revert To Older Name");
+	private JButton viewImageHistory = new JButton("view all historical names of image");
+	private JButton viewTagSet = new JButton("view Tag Set");
+	private JButton refresh = new JButton("Refresh");
+	private DefaultListModel<String> model = new DefaultListModel<>();
+	private TaskRunner tasks;
+
+	/**
+	 * Instantiates a CatalogClientGUI and shows the images of the library.
+	 *
+	 * @param client: a client for the server of the library
+	 * @param directory: the library
+	 */
+	CatalogClientGUI(CatalogClient client, File directory){
+		super("Photo Renamer - " + directory.getName() + " (catalog server)");
+		this.client = client;
+		JList<String> pictures = new JList<>(model);
+		pictures.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		tasks = new TaskRunner(addTag, removeTag, revertName, viewImageHistory, viewTagSet, refresh);
+		Buttons buttonListener = new Buttons(pictures);
+		addTag.addActionListener(buttonListener);
+		removeTag.addActionListener(buttonListener);
+		revertName.addActionListener(buttonListener);
+		viewImageHistory.addActionListener(buttonListener);
+		viewTagSet.addActionListener(buttonListener);
+		refresh.addActionListener(buttonListener);
+		JScrollPane scroller = new JScrollPane(pictures);
+		scroller.setPreferredSize(new Dimension(300, 400));
+		panel.add(new JLabel("This library is open in a catalog server; changes are made by the server."));
+		panel.add(scroller);
+		panel.add(addTag);
+		panel.add(removeTag);
+		panel.add(revertName);
+		panel.add(viewImageHistory);
+		panel.add(viewTagSet);
+		panel.add(refresh);
+		panel.add(tasks.getProgressBar());
+		panel.add(tasks.getCancelButton());
+		panel.setBackground(Color.WHITE);
+		this.add(panel);
+		this.setDefaultCloseOperation(EXIT_ON_CLOSE);
+		this.setSize(600, 700);
+		this.setVisible(true);
+		reload();
+	}
+	/**
+	 * A helper method which reads the images from the server again.
+	 */
+	private void reload(){
+		tasks.run("Reading images from the server", progress -> client.images(), null, images -> {
+			model.clear();
+			for(String line: images.split("\n")){
+				if(!(line.isEmpty())){
+					model.addElement(line.substring(0, line.indexOf('\t') < 0 ? line.length() : line.indexOf('\t')));
+				}
+			}
+		});
+	}
+	/**
+	 * A helper method which gives the tags in the file name of an image.
+	 */
+	private static List<String> tagsOf(String path){
+		String name = new File(path).getName();
+		List<String> tags = new ArrayList<>();
+		int dot = name.lastIndexOf('.');
+		String base = dot < 0 ? name : name.substring(0, dot);
+		int at = base.indexOf('@');
+		while(at >= 0){
+			int next = base.indexOf('@', at + 1);
+			tags.add(next < 0 ? base.substring(at) : base.substring(at, next));
+			at = next;
+		}
+		return tags;
+	}
+
+	private class Buttons implements ActionListener{
+		private JList<String> pictures;
+
+		Buttons(JList<String> pictures){
+			this.pictures = pictures;
+		}
+		@Override
+		public void actionPerformed(ActionEvent e){
+			JButton event = (JButton) e.getSource();
+			List<String> selection = pictures.getSelectedValuesList();
+			if(event.equals(refresh)){
+				reload();
+			}else if(event.equals(viewTagSet)){
+				tasks.run("Reading tag set", progress -> client.tags(), null, CatalogClientGUI.this::showText);
+			}else if(selection.isEmpty()){
+				return;
+			}else if(event.equals(addTag)){
+				String tag = "@" + JOptionPane.showInputDialog("Pick a Tag (Tag should not contain '@' character)");
+				if(tag.equals("@null")){
+					return;
+				}
+				List<String> operations = new ArrayList<>();
+				for(String image: selection){
+					operations.add("tag\t" + image + "\t" + tag);
+				}
+				change("Adding tag " + tag, operations);
+			}else if(event.equals(removeTag)){
+				LinkedHashSet<String> tags = new LinkedHashSet<>();
+				for(String image: selection){
+					tags.addAll(tagsOf(image));
+				}
+				JList<String> toBeRemoved = new JList<>(tags.toArray(new String[tags.size()]));
+				JScrollPane scroller = new JScrollPane(toBeRemoved);
+				scroller.setPreferredSize(new Dimension(300,125));
+				JOptionPane.showMessageDialog(panel, scroller, "Select Tags to Delete", JOptionPane.PLAIN_MESSAGE);
+				List<String> operations = new ArrayList<>();
+				for(String image: selection){
+					//with several images selected only delete the tags each one has
+					for(String tag: toBeRemoved.getSelectedValuesList()){
+						if(tagsOf(image).contains(tag)){
+							operations.add("untag\t" + image + "\t" + tag);
+						}
+					}
+				}
+				if(!(operations.isEmpty())){
+					change("Removing tags", operations);
+				}
+			}else if(event.equals(revertName)){
+				String selected = selection.get(0);
+				tasks.run("Reading older names of " + selected, progress -> client.names(selected), null, names -> {
+					JList<String> olderNames = new JList<>(names.split("\n"));
+					olderNames.getSelectionModel().setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+					JScrollPane scroller = new JScrollPane(olderNames);
+					scroller.setPreferredSize(new Dimension(300,125));
+					JOptionPane.showMessageDialog(panel, scroller, "Select Older Name", JOptionPane.PLAIN_MESSAGE);
+					String name = olderNames.getSelectedValue();
+					if(name != null){
+						List<String> operations = new ArrayList<>();
+						operations.add("revert\t" + selected + "\t" + name);
+						change("Reverting " + selected, operations);
+					}
+				});
+			}else if(event.equals(viewImageHistory)){
+				String selected = selection.get(0);
+				tasks.run("Reading history of " + selected, progress -> client.history(selected), null,
+						CatalogClientGUI.this::showText);
+			}
+		}
+	}
+	/**
+	 * A helper method which sends changes to the server as one batch, shows the
+	 * changes that failed and reads the images again.
+	 */
+	private void change(String description, List<String> operations){
+		tasks.run(description, progress -> client.batch(operations), null, replies -> {
+			StringBuilder failed = new StringBuilder();
+			String[] lines = replies.split("\n");
+			for(int i = 0; i < lines.length && i < operations.size(); i++){
+				if(!(lines[i].equals("ok"))){
+					failed.append(operations.get(i).split("\t")[1]).append(": ").append(lines[i]).append('\n');
+				}
+			}
+			if(failed.length() > 0){
+				showText(failed.toString());
+			}
+			reload();
+		});
+	}
+	private void showText(String text){
+		JTextArea area = new JTextArea(text);
+		area.setEditable(false);
+		JScrollPane scroller = new JScrollPane(area);
+		scroller.setPreferredSize(new Dimension(300,125));
+		JOptionPane.showMessageDialog(panel, scroller);
+	}
+}
@@ -0,0 +1,426 @@
+package photo_renamer;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+public class CatalogServer{
+
+	/**
+	 * The CatalogServer owns the catalog of one library in memory and lets other
+	 * processes use it over HTTP on localhost, so several clients share one copy of
+	 * the catalog instead of each loading (and overwriting) ".images.ser". All requests
+	 * are handled one at a time by a single thread, so the PhotoRenamer never sees two
+	 * operations at once. Connections are kept alive, so a client sending one request
+	 * after another does not connect again each time (requests are still answered one
+	 * by one, not pipelined), and "/batch" applies many operations with a single save
+	 * of the catalog.
+	 *
+	 * Only processes of the user can use the server: a random token is written to the
+	 * PORT_FILE together with the port (the file is only readable by its owner), and
+	 * every request must carry it in the TOKEN_HEADER. A web page can not send that
+	 * header to another origin without the server agreeing first (which it never
+	 * does), so a browser can not be made to change the library either.
+	 *
+	 * Images are named by their path relative to the library with the tags removed from
+	 * the file name (so the name stays the same while the image is retagged). Where
+	 * several images have the same path without tags (e.g. "a.jpg" and "a@x.jpg"),
+	 * they have to be named by their full current path instead. Replies
+	 * are plain UTF-8 text, one item per line.
+	 *
+	 *   GET  /images                      path and tags of every image
+	 *   GET  /tags                        the tag set
+	 *   GET  /query?tag=T                 paths of the images carrying tag T
+	 *   GET  /history?image=P             name history of image P
+	 *   GET  /names?image=P               the names image P has had, one per line
+	 *   POST /tag?image=P&tag=T           add tag T to image P
+	 *   POST /untag?image=P&tag=T         delete tag T from image P
+	 *   POST /revert?image=P&name=N       revert image P to its older name N
+	 *   POST /batch                       body: one "op TAB image TAB argument" per line
+	 *                                     (op is tag, untag or revert); one reply per line
+	 *   POST /shutdown                    save and stop the server
+	 *
+	 * Only one server can serve a library at a time: a server holds an exclusive lock
+	 * on the LOCK_FILE of the library from before the catalog is read until it stops.
+	 *
+	 * PORT_FILE: the file in the library the port and token of a running server are
+	 * written to
+	 * LOCK_FILE: the file in the library a running server holds locked
+	 * TOKEN_HEADER: the request header carrying the token
+	 *
+	 * lock: the lock on the LOCK_FILE, held while the server runs
+	 *
+	 * renamer: the PhotoRenamer holding the catalog
+	 *
+	 * server: the HTTP server
+	 *
+	 * images: the images of every path without tags (more than one if their names
+	 * only differ in their tags)
+	 *
+	 * token: the token every request must carry
+	 *
+	 * stopped: released when the server is shut down
+	 */
+	static final String PORT_FILE = ".catalog.port";
+	static final String LOCK_FILE = ".catalog.lock";
+	static final String TOKEN_HEADER = "X-Catalog-Token";
+	private FileLock lock;
+	private PhotoRenamer renamer;
+	private HttpServer server;
+	private HashMap<String, List<Image>> images = new HashMap<>();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private final String token = newToken();
+
+	/**
+	 * Instantiates a CatalogServer for the given library and binds it to localhost.
+	 *
+	 * @param directory: the library to serve
+	 * @param port: the port to listen on, or 0 to pick a free one
+	 * @throws IOException: thrown if another server is serving the library or the
+	 * server could not be bound
+	 */
+	public CatalogServer(File directory, int port) throws IOException{
+		//two servers of one library would overwrite each other's catalog
+		this.lock = lock(directory);
+		try{
+			this.renamer = new PhotoRenamer(directory);
+			for(Image image: renamer.getImages()){
+				List<Image> named = images.get(key(image));
+				if(named == null){
+					named = new ArrayList<>(1);
+					images.put(key(image), named);
+				}
+				named.add(image);
+			}
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		}catch(IOException | RuntimeException e){
+			unlock();
+			throw e;
+		}
+		server.createContext("/", this::handle);
+		ExecutorService worker = Executors.newSingleThreadExecutor();
+		server.setExecutor(worker);
+	}
+	/**
+	 * Writes the port and token of the server to the PORT_FILE of the library so
+	 * clients can find it, then starts the server. The file is written under another
+	 * name that only its owner can open from the moment it is created, and then moved
+	 * into place, so the token is never readable by anyone else and clients never read
+	 * a half written file. The file is removed again when the server stops (a port
+	 * file left behind by a server that was killed is recognised by the clients, see
+	 * CatalogClient.running).
+	 *
+	 * @throws IOException: thrown if the port file could not be written
+	 */
+	public void start() throws IOException{
+		Path portFile = portFile(renamer.getDirectory()).toPath();
+		Path written = portFile.resolveSibling(PORT_FILE + ".tmp");
+		Files.deleteIfExists(written);
+		try{
+			Files.createFile(written, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		}catch(UnsupportedOperationException e){
+			//not a POSIX file system: the file is made private before the token is
+			//written to it
+			File file = Files.createFile(written).toFile();
+			file.setReadable(false, false);
+			file.setWritable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(true, true);
+		}
+		try{
+			Files.write(written, (getPort() + "\n" + token + "\n").getBytes(StandardCharsets.UTF_8));
+			Files.move(written, portFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			Files.deleteIfExists(written);
+			throw e;
+		}
+		portFile.toFile().deleteOnExit();
+		//the socket is already bound, so clients that read the file before this wait
+		//until the server starts
+		server.start();
+	}
+	/**
+	 * Blocks until the server has been shut down by a "/shutdown" request.
+	 *
+	 * @throws InterruptedException: thrown if the waiting thread is interrupted
+	 */
+	public void awaitShutdown() throws InterruptedException{
+		stopped.await();
+	}
+	/**
+	 * Stops the server and removes its port file.
+	 */
+	public void stop(){
+		server.stop(0);
+		((ExecutorService) server.getExecutor()).shutdown();
+		portFile(renamer.getDirectory()).delete();
+		renamer.close();
+		unlock();
+		stopped.countDown();
+	}
+	/**
+	 * Gives the port the server listens on.
+	 *
+	 * @return the port the server listens on
+	 */
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+	/**
+	 * Gives the file a server of the given library writes its port to.
+	 *
+	 * @param directory: the library
+	 * @return the port file of the library
+	 */
+	static File portFile(File directory){
+		return new File(directory, PORT_FILE);
+	}
+	/**
+	 * A helper method which locks the LOCK_FILE of a library. The lock is released
+	 * by the operating system if the process dies, so a killed server never keeps the
+	 * library locked.
+	 *
+	 * @return the lock
+	 * @throws IOException: thrown if another server holds the lock
+	 */
+	private static FileLock lock(File directory) throws IOException{
+		FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		FileLock lock;
+		try{
+			lock = channel.tryLock();
+		}catch(IOException | OverlappingFileLockException e){
+			channel.close();
+			throw new IOException("could not lock " + LOCK_FILE + " of " + directory, e);
+		}
+		if(lock == null){
+			channel.close();
+			throw new IOException("a catalog server is already serving " + directory);
+		}
+		return lock;
+	}
+	/**
+	 * A helper method which releases the lock on the library.
+	 */
+	private void unlock(){
+		try{
+			lock.channel().close();
+		}catch(IOException e){
+			System.out.println("could not release " + LOCK_FILE);
+			e.printStackTrace();
+		}
+	}
+	/**
+	 * A helper method which handles one request and sends its reply.
+	 */
+	private void handle(HttpExchange exchange) throws IOException{
+		int status = 200;
+		String reply;
+		String sent = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+		if(sent == null || !(MessageDigest.isEqual(sent.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8)))){
+			send(exchange, 401, "missing or wrong " + TOKEN_HEADER + "\n");
+			return;
+		}
+		try{
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			String path = exchange.getRequestURI().getPath();
+			boolean post = exchange.getRequestMethod().equalsIgnoreCase("POST");
+			if(path.equals("/images")){
+				reply = listImages();
+			}else if(path.equals("/tags")){
+				reply = PhotoRenamer.viewTagSet();
+			}else if(path.equals("/query")){
+				reply = query(require(query, "tag"));
+			}else if(path.equals("/history")){
+				reply = renamer.viewImageLog(find(require(query, "image")));
+			}else if(path.equals("/names")){
+				reply = String.join("\n", renamer.viewImageNames(find(require(query, "image")))) + "\n";
+			}else if(!(post)){
+				status = path.equals("/tag") || path.equals("/untag") || path.equals("/revert")
+						|| path.equals("/batch") || path.equals("/shutdown") ? 405 : 404;
+				reply = "unknown request " + exchange.getRequestMethod() + " " + path + "\n";
+			}else if(path.equals("/batch")){
+				reply = batch(exchange);
+			}else if(path.equals("/shutdown")){
+				reply = "ok\n";
+				send(exchange, status, reply);
+				//stop from another thread so the worker is not waiting on itself
+				new Thread(this::stop).start();
+				return;
+			}else{
+				String op = path.substring(1);
+				String argument = op.equals("revert") ? require(query, "name") : require(query, "tag");
+				apply(op, require(query, "image"), argument);
+				reply = "ok\n";
+			}
+		}catch(ImageNotFoundException | TagNotFoundException e){
+			status = 404;
+			reply = e.getMessage() + "\n";
+		}catch(RenameException e){
+			status = e instanceof NameCollisionException ? 409 : e instanceof ImageFileMissingException ? 404
+					: e instanceof RenameDeniedException ? 403 : 500;
+			reply = e.getMessage() + "\n";
+		}catch(IllegalArgumentException e){
+			status = 400;
+			reply = e.getMessage() + "\n";
+		}
+		send(exchange, status, reply);
+	}
+	/**
+	 * A helper method which applies every line of the body of a "/batch" request
+	 * inside one batch of the PhotoRenamer, so the catalog is saved once.
+	 */
+	private String batch(HttpExchange exchange) throws IOException{
+		StringBuilder reply = new StringBuilder();
+		BufferedReader body = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+		renamer.beginBatch();
+		try{
+			String line;
+			while((line = body.readLine()) != null){
+				if(line.isEmpty()){
+					continue;
+				}
+				String[] parts = line.split("\t");
+				try{
+					if(parts.length != 3){
+						throw new IllegalArgumentException("expected op, image and argument: " + line);
+					}
+					apply(parts[0], parts[1], parts[2]);
+					reply.append("ok\n");
+				}catch(ImageNotFoundException | TagNotFoundException | RenameException | IllegalArgumentException e){
+					reply.append("error ").append(e.getMessage()).append('\n');
+				}
+			}
+		}finally{
+			renamer.endBatch();
+		}
+		return reply.toString();
+	}
+	/**
+	 * A helper method which applies one tag, untag or revert operation.
+	 */
+	private void apply(String op, String image, String argument) throws ImageNotFoundException, TagNotFoundException,
+			RenameException{
+		Image target = find(image);
+		if(op.equals("tag")){
+			renamer.addTag(target, argument);
+		}else if(op.equals("untag")){
+			renamer.deleteTag(target, argument);
+		}else if(op.equals("revert")){
+			renamer.olderName(target, argument);
+		}else{
+			throw new IllegalArgumentException("unknown operation " + op);
+		}
+	}
+	private String listImages(){
+		StringBuilder s = new StringBuilder();
+		for(Image image: renamer.getImages()){
+			s.append(CatalogTransfer.relativePath(renamer.getDirectory(), image)).append('\t')
+					.append(String.join("", image.getCurrTags())).append('\n');
+		}
+		return s.toString();
+	}
+	private String query(String tag){
+		StringBuilder s = new StringBuilder();
+		for(Image image: renamer.getImages()){
+			if(Arrays.asList(image.getCurrTags()).contains(tag)){
+				s.append(CatalogTransfer.relativePath(renamer.getDirectory(), image)).append('\n');
+			}
+		}
+		return s.toString();
+	}
+	/**
+	 * A helper method which finds an image by its path with or without tags. Images
+	 * whose paths without tags are the same are only found by their current path.
+	 */
+	private Image find(String image) throws ImageNotFoundException{
+		List<Image> named = images.get(CatalogTransfer.untaggedPath(image));
+		if(named == null){
+			throw new ImageNotFoundException();
+		}
+		if(named.size() == 1){
+			return named.get(0);
+		}
+		for(Image found: named){
+			if(CatalogTransfer.relativePath(renamer.getDirectory(), found).equals(image)){
+				return found;
+			}
+		}
+		throw new IllegalArgumentException(named.size() + " images are named " + CatalogTransfer.untaggedPath(image)
+				+ " without their tags; name one with its current tags");
+	}
+	private String key(Image image){
+		return CatalogTransfer.untaggedPath(CatalogTransfer.relativePath(renamer.getDirectory(), image));
+	}
+	private static String require(Map<String, String> query, String name){
+		String value = query.get(name);
+		if(value == null){
+			throw new IllegalArgumentException("missing parameter " + name);
+		}
+		return value;
+	}
+	/**
+	 * A helper method which makes a random token of 128 bits.
+	 */
+	private static String newToken(){
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder s = new StringBuilder();
+		for(byte b: bytes){
+			s.append(String.format("%02x", b));
+		}
+		return s.toString();
+	}
+	private static Map<String, String> parseQuery(String raw){
+		Map<String, String> query = new HashMap<>();
+		if(raw == null){
+			return query;
+		}
+		try{
+			for(String pair: raw.split("&")){
+				int eq = pair.indexOf('=');
+				if(eq > 0){
+					query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+				}
+			}
+		}catch(UnsupportedEncodingException e){
+			throw new IllegalStateException(e);
+		}
+		return query;
+	}
+	private static void send(HttpExchange exchange, int status, String reply) throws IOException{
+		byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+}
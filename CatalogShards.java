@@ -0,0 +1,445 @@
+package photo_renamer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+
+public class CatalogShards{
+
+	/**
+	 * CatalogShards stores the catalog of a library as one shard per directory: the
+	 * ".images.ser" of a directory only holds the images directly inside it. Opening any
+	 * directory therefore loads exactly the shards of its subtree (and shares them with
+	 * any other directory that contains it), shards are loaded in parallel while the
+	 * tree is being listed, and saving only rewrites the shards that changed.
+	 *
+	 * Catalogs written before sharding kept the images of a whole tree in the
+	 * ".images.ser" of the directory that was opened; when such a file is read, its
+	 * images are moved to the shards of their own directories.
+	 *
+	 * While a library is opened, the images of every shard are handed out as soon as
+	 * the shard is read, so they can be shown while the rest of the tree is still
+	 * being listed. The image files of a listed directory that are in no shard are
+	 * handed out as new images as soon as the shards that could hold them are read
+	 * (its own shard and those of the directories above it, which may be catalogs
+	 * written before sharding); only files whose shard can not be read follow once
+	 * the whole tree is known.
+	 *
+	 * Directories that did not change since the library was last opened are not
+	 * listed again (see ScanIndex): their shard is loaded and the directories in them
+	 * are walked, but their files are neither listed nor checked for being images.
+	 *
+	 * SHARD_FILE: the name of the shard file in every directory with images
+	 * LOADERS: the number of threads loading shards
+	 * shards: the images of every directory, in the order they were found
+	 * dirty: the directories whose shard has to be written
+	 * walked: the directories of the library, forgotten by the NameIndex on close
+	 * scan: the index of the last open, written by the next save
+	 */
+	static final String SHARD_FILE = ".images.ser";
+	static final int LOADERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	private final LinkedHashMap<DirectoryNode, ArrayList<Image>> shards = new LinkedHashMap<>();
+	private final HashSet<DirectoryNode> dirty = new HashSet<>();
+	private final HashSet<DirectoryNode> walked = new HashSet<>();
+	private ScanIndex scan;
+
+	/**
+	 * Lists the given directory and all directories in it, loading their shards in
+	 * parallel, and adds an Image for every image file that is not in a shard yet.
+	 *
+	 * @param root: the directory to open
+	 * @param isImage: tells which files are images
+	 * @param images: receives the images of each shard as soon as it is read and the
+	 * new images of each directory as soon as they are known (on loader threads), and
+	 * at the end any images not handed out yet, or null
+	 * @param timings: records the "check", "scan", "catalog" and "merge" stages
+	 * @return all images in the directory and its subdirectories
+	 */
+	public synchronized List<Image> open(File root, Predicate<File> isImage, Consumer<List<Image>> images,
+			StartupTimings timings){
+		//walked files must compare equal to the (absolute) files of loaded images
+		root = root.getAbsoluteFile().toPath().normalize().toFile();
+		ExecutorService loader = Executors.newFixedThreadPool(LOADERS);
+		LinkedHashMap<DirectoryNode, Future<ArrayList<Image>>> loads = new LinkedHashMap<>();
+		LinkedHashMap<DirectoryNode, List<File>> found = new LinkedHashMap<>();
+		List<Image> foreign = new ArrayList<>();
+		Loader shardLoader = new Loader(loader, images, timings);
+		try{
+			timings.begin("catalog");
+			timings.begin("check");
+			scan = new ScanIndex(root);
+			timings.end("check");
+			timings.begin("scan");
+			walk(root, isImage, shardLoader, loads, found, new ArrayList<DirectoryNode>());
+			timings.end("scan");
+			for(Map.Entry<DirectoryNode, Future<ArrayList<Image>>> load: loads.entrySet()){
+				ArrayList<Image> shard = shard(load.getKey());
+				ArrayList<Image> loaded = waitFor(load.getValue());
+				if(loaded == null){
+					//the files of a directory whose shard is unreadable are found again
+					//as new images, also if it was skipped as unchanged
+					scan.forget(load.getKey());
+					if(!(found.containsKey(load.getKey()))){
+						found.put(load.getKey(), list(load.getKey().toFile(), isImage));
+					}
+					continue;
+				}
+				for(Image image: loaded){
+					if(image.getParent() == load.getKey()){
+						shard.add(image);
+					}else{
+						foreign.add(image);
+						dirty.add(load.getKey());
+					}
+				}
+			}
+			timings.end("catalog");
+		}finally{
+			loader.shutdown();
+		}
+		timings.begin("merge");
+		HashSet<File> known = new HashSet<>();
+		for(ArrayList<Image> shard: shards.values()){
+			for(Image image: shard){
+				known.add(image.getImage());
+			}
+		}
+		//new images that were already handed out while the tree was walked
+		HashMap<File, Image> discovered = new HashMap<>();
+		for(Future<ArrayList<Image>> discovery: shardLoader.discoveries){
+			ArrayList<Image> news = waitFor(discovery);
+			if(news != null){
+				for(Image image: news){
+					discovered.put(image.getImage(), image);
+				}
+			}
+		}
+		for(Image image: discovered.values()){
+			add(image);
+			known.add(image.getImage());
+		}
+		List<Image> added = new ArrayList<>();
+		//images of other directories (from a catalog written before sharding) are
+		//moved to their own shard unless that shard already has them
+		for(Image image: foreign){
+			if(known.add(image.getImage())){
+				add(image);
+				added.add(image);
+			}
+		}
+		//files that are in no shard are new images
+		for(List<File> files: found.values()){
+			for(File file: files){
+				if(!(known.contains(file))){
+					Image image = new Image(file.getName(), file, new TagLog());
+					add(image);
+					added.add(image);
+				}
+			}
+		}
+		if(images != null && !(added.isEmpty())){
+			timings.mark("first images");
+			images.accept(added);
+		}
+		List<Image> all = new ArrayList<>();
+		for(ArrayList<Image> shard: shards.values()){
+			all.addAll(shard);
+		}
+		timings.end("merge");
+		return all;
+	}
+	/**
+	 * Adds a new image to the shard of its directory.
+	 *
+	 * @param image: the new image
+	 */
+	public synchronized void add(Image image){
+		shard(image.getParent()).add(image);
+		dirty.add(image.getParent());
+	}
+	/**
+	 * Records that an image changed, so its shard is written on the next save.
+	 *
+	 * @param image: the changed image
+	 */
+	public synchronized void changed(Image image){
+		dirty.add(image.getParent());
+	}
+	/**
+	 * Writes the shards of every directory that changed since the last save, in
+	 * parallel. The oldest names of long histories are moved to the HistoryArchive of
+	 * the directory first, so a shard only holds the newest names of its images. A
+	 * shard is written to a temporary file that then replaces it, so an interrupted
+	 * save never leaves a torn shard behind. The
+	 * first save after opening also writes the ScanIndex, once every shard it relies
+	 * on is written.
+	 */
+	public synchronized void save(){
+		List<DirectoryNode> toWrite = new ArrayList<>(dirty);
+		dirty.clear();
+		ScanIndex index = scan;
+		scan = null;
+		toWrite.parallelStream().forEach(directory -> {
+			//each shard is only read here, and no images are added while saving
+			ArrayList<Image> shard = shards.get(directory);
+			HistoryArchive.spill(directory.resolve(HistoryArchive.ARCHIVE_FILE), shard);
+			File written = directory.resolve(SHARD_FILE + ".tmp");
+			try{
+				try(ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(written))){
+					out.writeObject(shard);
+				}
+				Files.move(written.toPath(), directory.resolve(SHARD_FILE).toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}catch(IOException e){
+				System.out.println("serialization failed");
+				e.printStackTrace();
+				written.delete();
+				if(index != null){
+					index.forget(directory);
+				}
+			}
+		});
+		if(index != null){
+			index.write();
+		}
+	}
+	/**
+	 * Drops the names of every directory of the library from the NameIndex, once the
+	 * library is no longer used.
+	 */
+	public synchronized void close(){
+		for(DirectoryNode directory: walked){
+			NameIndex.shared().forget(directory);
+		}
+		walked.clear();
+	}
+	/**
+	 * A helper method which lists a directory: its names are recorded in the NameIndex,
+	 * its shard file is handed to the loader before anything else, image files are
+	 * added to found (and handed to the loader to find the new ones among them), and
+	 * directories are walked recursively. A directory that did not change is not
+	 * listed: only its shard is loaded and its directories walked.
+	 *
+	 * @param above: the directories above this one whose shard is being loaded
+	 */
+	private void walk(File directory, Predicate<File> isImage, Loader loader,
+			Map<DirectoryNode, Future<ArrayList<Image>>> loads, Map<DirectoryNode, List<File>> found,
+			List<DirectoryNode> above){
+		DirectoryNode node = DirectoryNode.of(directory);
+		walked.add(node);
+		ScanIndex.Fingerprint known = scan.unchanged(node);
+		if(known != null){
+			//its names are listed by the NameIndex if a rename ever needs them
+			List<DirectoryNode> below = above;
+			if(known.hasShard()){
+				loads.put(node, loader.load(node, new File(directory, SHARD_FILE)));
+				below = new ArrayList<>(above);
+				below.add(node);
+			}
+			for(String subdirectory: known.getSubdirectories()){
+				walk(new File(directory, subdirectory), isImage, loader, loads, found, below);
+			}
+			return;
+		}
+		BasicFileAttributes before = ScanIndex.stat(directory);
+		File[] files = directory.listFiles();
+		if(files == null){
+			return;
+		}
+		//the listing is handed to the NameIndex so renames need not list again
+		String[] names = new String[files.length];
+		for(int i = 0; i < files.length; i++){
+			names[i] = files[i].getName();
+		}
+		NameIndex.shared().record(node, names);
+		File shardFile = new File(directory, SHARD_FILE);
+		List<DirectoryNode> below = above;
+		if(shardFile.isFile()){
+			loads.put(node, loader.load(node, shardFile));
+			below = new ArrayList<>(above);
+			below.add(node);
+		}
+		List<File> images = new ArrayList<>();
+		List<String> subdirectories = new ArrayList<>();
+		for(File f: files){
+			if(f.getName().equals(SHARD_FILE)){
+				continue;
+			}else if(f.isDirectory()){
+				subdirectories.add(f.getName());
+				walk(f, isImage, loader, loads, found, below);
+			}else if(isImage.test(f)){
+				images.add(f);
+			}
+		}
+		found.put(node, images);
+		if(!(images.isEmpty())){
+			loader.discover(node, images, loads, above);
+		}
+		scan.listed(node, before, subdirectories, shardFile.isFile());
+	}
+	/**
+	 * A helper method which gives the image files directly in a directory, for a
+	 * directory that was skipped as unchanged but whose shard can not be read.
+	 */
+	private static List<File> list(File directory, Predicate<File> isImage){
+		List<File> images = new ArrayList<>();
+		File[] files = directory.listFiles();
+		if(files != null){
+			for(File f: files){
+				if(!(f.getName().startsWith(SHARD_FILE)) && f.isFile() && isImage.test(f)){
+					images.add(f);
+				}
+			}
+		}
+		return images;
+	}
+	/**
+	 * A helper method which waits for a shard to be loaded; a shard that can not be
+	 * read is reported.
+	 *
+	 * @return the images of the shard, or null if it could not be read
+	 */
+	private static ArrayList<Image> waitFor(Future<ArrayList<Image>> load){
+		try{
+			return load.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}catch(ExecutionException e){
+			System.out.println("could not deserialize");
+			e.getCause().printStackTrace();
+		}
+		return null;
+	}
+	/**
+	 * Reads shards on the loader threads and hands out the images of each shard that
+	 * belong to its directory as soon as it is read. It also finds the new images of
+	 * every listed directory and hands them out as soon as the shards that could hold
+	 * them are read.
+	 *
+	 * foreign: for every shard that was read, the files of the images in it that
+	 * belong to other directories, by directory
+	 * discoveries: the new images of every listed directory
+	 */
+	private static class Loader{
+		private final ExecutorService executor;
+		private final Consumer<List<Image>> images;
+		private final StartupTimings timings;
+		private final ConcurrentHashMap<DirectoryNode, HashMap<DirectoryNode, HashSet<File>>> foreign = new ConcurrentHashMap<>();
+		private final List<Future<ArrayList<Image>>> discoveries = new ArrayList<>();
+
+		Loader(ExecutorService executor, Consumer<List<Image>> images, StartupTimings timings){
+			this.executor = executor;
+			this.images = images;
+			this.timings = timings;
+		}
+		Future<ArrayList<Image>> load(DirectoryNode directory, File shardFile){
+			return executor.submit(() -> {
+				ArrayList<Image> shard = read(shardFile);
+				List<Image> own = new ArrayList<>();
+				HashMap<DirectoryNode, HashSet<File>> others = new HashMap<>();
+				for(Image image: shard){
+					if(image.getParent() == directory){
+						own.add(image);
+					}else{
+						HashSet<File> files = others.get(image.getParent());
+						if(files == null){
+							files = new HashSet<>();
+							others.put(image.getParent(), files);
+						}
+						files.add(image.getImage());
+					}
+				}
+				foreign.put(directory, others);
+				if(images != null && !(own.isEmpty())){
+					timings.mark("first images");
+					images.accept(own);
+				}
+				return shard;
+			});
+		}
+		/**
+		 * Finds the image files of a directory that are in no shard, once its own shard
+		 * and the shards above it are read, and hands them out as new images. Every
+		 * shard waited for was submitted earlier, so it is already being read. If a
+		 * shard can not be read nothing is handed out and the files are left to open.
+		 */
+		void discover(DirectoryNode directory, List<File> files, Map<DirectoryNode, Future<ArrayList<Image>>> loads,
+				List<DirectoryNode> above){
+			if(images == null){
+				return;
+			}
+			Future<ArrayList<Image>> ownLoad = loads.get(directory);
+			List<Future<ArrayList<Image>>> aboveLoads = new ArrayList<>();
+			for(DirectoryNode node: above){
+				aboveLoads.add(loads.get(node));
+			}
+			discoveries.add(executor.submit(() -> {
+				HashSet<File> known = new HashSet<>();
+				try{
+					if(ownLoad != null){
+						for(Image image: ownLoad.get()){
+							known.add(image.getImage());
+						}
+					}
+					for(int i = 0; i < above.size(); i++){
+						aboveLoads.get(i).get();
+						HashSet<File> held = foreign.get(above.get(i)).get(directory);
+						if(held != null){
+							known.addAll(held);
+						}
+					}
+				}catch(ExecutionException e){
+					//reported by open, which also adds the files
+					return new ArrayList<Image>();
+				}
+				ArrayList<Image> news = new ArrayList<>();
+				for(File file: files){
+					if(!(known.contains(file))){
+						news.add(new Image(file.getName(), file, new TagLog()));
+					}
+				}
+				if(!(news.isEmpty())){
+					timings.mark("first images");
+					images.accept(news);
+				}
+				return news;
+			}));
+		}
+	}
+	private ArrayList<Image> shard(DirectoryNode directory){
+		ArrayList<Image> shard = shards.get(directory);
+		if(shard == null){
+			shard = new ArrayList<>();
+			shards.put(directory, shard);
+		}
+		return shard;
+	}
+	@SuppressWarnings("unchecked") //a shard is always an ArrayList of images
+	private static ArrayList<Image> read(File shardFile) throws IOException, ClassNotFoundException{
+		if(shardFile.length() == 0){
+			return new ArrayList<>();
+		}
+		try(ObjectInputStream in = new ObjectInputStream(new FileInputStream(shardFile))){
+			return (ArrayList<Image>) in.readObject();
+		}
+	}
+}
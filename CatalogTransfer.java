@@ -0,0 +1,487 @@
+package photo_renamer;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class CatalogTransfer{
+
+	/**
+	 * CatalogTransfer exports the catalog of a PhotoRenamer (the path, current tags
+	 * and name history of every image) to line-delimited JSON or CSV, and imports it
+	 * back. Both directions stream one image at a time so memory use does not depend on
+	 * the size of the file. Paths are written relative to the directory of the
+	 * PhotoRenamer with '/' separators so a catalog can be moved between machines.
+	 *
+	 * JSON lines look like:
+	 * {"path":"a/b@x.jpg","tags":["@x"],"history":[{"name":"b.jpg","time":"2016/12/28 09:11:00"}]}
+	 *
+	 * CSV files have the header "path,tags,name,time" and one row per name in the
+	 * history of an image; tags are written joined together (as they appear in file
+	 * names). Fields with a comma, a quote or a line break are quoted, so a row may
+	 * span several lines.
+	 *
+	 * BATCH_SIZE: how many imported images are renamed together in one batch
+	 *
+	 * renamer: the PhotoRenamer whose catalog is exported or imported
+	 */
+	static final int BATCH_SIZE = 512;
+	private static final String CSV_HEADER = "path,tags,name,time";
+	private PhotoRenamer renamer;
+
+	/**
+	 * Instantiates a CatalogTransfer for the given PhotoRenamer
+	 *
+	 * @param renamer: the PhotoRenamer whose catalog is exported or imported
+	 */
+	CatalogTransfer(PhotoRenamer renamer){
+		this.renamer = renamer;
+	}
+	/**
+	 * Writes the catalog to the given file, as CSV if the file name ends in ".csv"
+	 * and as line-delimited JSON otherwise.
+	 *
+	 * @param out: the file to write to
+	 * @throws IOException: thrown if the file could not be written
+	 */
+	public void exportTo(File out) throws IOException{
+		boolean csv = isCsv(out);
+		try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))){
+			if(csv){
+				writer.write(CSV_HEADER);
+				writer.write("\n");
+			}
+			for(Image image: renamer.getImages()){
+				if(csv){
+					writeCsv(writer, image);
+				}else{
+					writeJson(writer, image);
+				}
+			}
+		}
+	}
+	/**
+	 * Reads a catalog from the given file and applies it to the images of the
+	 * PhotoRenamer. Images are matched by their path without tags; records that do
+	 * not match an image in the directory are skipped. The list of images is serialized once when the import is done.
+	 *
+	 * @param in: the file to read from
+	 * @return the number of records that matched an image in the directory
+	 * @throws IOException: thrown if the file could not be read or is malformed
+	 */
+	public int importFrom(File in) throws IOException{
+		HashMap<String, Image> byPath = new HashMap<>();
+		for(Image image: renamer.getImages()){
+			byPath.put(untaggedPath(relativePath(renamer.getDirectory(), image)), image);
+		}
+		boolean csv = isCsv(in);
+		Map<Image, String[]> batch = new LinkedHashMap<>();
+		int matched = 0;
+		renamer.beginBatch();
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(in), StandardCharsets.UTF_8))){
+			String line;
+			Record pending = null;
+			if(csv){
+				line = readCsvRow(reader);
+				if(line != null && !(line.equals(CSV_HEADER))){
+					throw new IOException("not a catalog csv file: " + in);
+				}
+			}
+			while((line = csv ? readCsvRow(reader) : reader.readLine()) != null){
+				if(line.trim().isEmpty()){
+					continue;
+				}
+				Record record;
+				if(csv){
+					//rows of the same image are consecutive, so an image is complete
+					//as soon as a row for another path is read
+					List<String> row = parseCsvRow(line);
+					if(row.size() != 4){
+						throw new IOException("malformed catalog row: " + line);
+					}
+					if(pending != null && pending.path.equals(row.get(0))){
+						pending.history.add(new String[]{row.get(2), row.get(3)});
+						continue;
+					}
+					record = pending;
+					pending = new Record(row.get(0), splitTags(row.get(1)));
+					pending.history.add(new String[]{row.get(2), row.get(3)});
+				}else{
+					record = parseJson(line);
+				}
+				if(record != null && apply(record, byPath, batch)){
+					matched++;
+				}
+				if(batch.size() >= BATCH_SIZE){
+					renamer.applyTags(batch);
+					batch.clear();
+				}
+			}
+			if(pending != null && apply(pending, byPath, batch)){
+				matched++;
+			}
+			if(!(batch.isEmpty())){
+				renamer.applyTags(batch);
+			}
+		}finally{
+			renamer.endBatch();
+		}
+		return matched;
+	}
+	/**
+	 * A helper method which merges the history of a record into its image and, if the
+	 * image needs to be renamed, adds it to the batch.
+	 *
+	 * @return true if the record matched an image in the directory
+	 */
+	private boolean apply(Record record, Map<String, Image> byPath, Map<Image, String[]> batch){
+		Image image = byPath.get(untaggedPath(record.path));
+		if(image == null){
+			return false;
+		}
+		for(String[] entry: record.history){
+			image.mergeHistory(entry[0], entry[1]);
+		}
+		String fileName = record.path.substring(record.path.lastIndexOf("/") + 1);
+		if(image.getCurrTags().length == 0 && image.toString().equals(fileName)){
+			//the file already carries its tags (it was copied together with the
+			//catalog) so only the catalog has to catch up
+			renamer.restoreTags(image, record.tags);
+		}else{
+			batch.put(image, record.tags);
+		}
+		return true;
+	}
+	/**
+	 * Gives the path of an image relative to the given directory, separated by '/'.
+	 *
+	 * @param directory: the directory of the PhotoRenamer the image belongs to
+	 * @param image: the image whose path to give
+	 * @return the relative path of the image
+	 */
+	static String relativePath(File directory, Image image){
+		String path = directory.toPath().relativize(image.getImage().toPath()).toString();
+		return path.replace(File.separatorChar, '/');
+	}
+	/**
+	 * Removes the tags from the file name of a path, so an image can be matched
+	 * whichever tags it carries. Assumes the initial name of an image does not
+	 * contain '@'.
+	 *
+	 * @param path: a path of an image
+	 * @return the path with the tags removed from its file name
+	 */
+	static String untaggedPath(String path){
+		int tagStart = path.indexOf('@', path.lastIndexOf("/") + 1);
+		int extStart = path.lastIndexOf(".");
+		if(tagStart < 0 || extStart < tagStart){
+			return path;
+		}
+		return path.substring(0, tagStart) + path.substring(extStart);
+	}
+	private static boolean isCsv(File file){
+		return file.getName().toLowerCase().endsWith(".csv");
+	}
+	private void writeJson(Writer writer, Image image) throws IOException{
+		StringBuilder s = new StringBuilder("{\"path\":");
+		quoteJson(s, relativePath(renamer.getDirectory(), image));
+		s.append(",\"tags\":[");
+		String[] tags = image.getCurrTags();
+		for(int i = 0; i < tags.length; i++){
+			if(i > 0){
+				s.append(',');
+			}
+			quoteJson(s, tags[i]);
+		}
+		s.append("],\"history\":[");
+		boolean first = true;
+		for(Map.Entry<String, String> entry: image.history().entrySet()){
+			if(!(first)){
+				s.append(',');
+			}
+			first = false;
+			s.append("{\"name\":");
+			quoteJson(s, entry.getKey());
+			s.append(",\"time\":");
+			quoteJson(s, entry.getValue());
+			s.append('}');
+		}
+		s.append("]}\n");
+		writer.write(s.toString());
+	}
+	private void writeCsv(Writer writer, Image image) throws IOException{
+		String path = quoteCsv(relativePath(renamer.getDirectory(), image));
+		String tags = quoteCsv(String.join("", image.getCurrTags()));
+		for(Map.Entry<String, String> entry: image.history().entrySet()){
+			writer.write(path + "," + tags + "," + quoteCsv(entry.getKey()) + "," + quoteCsv(entry.getValue()) + "\n");
+		}
+	}
+	private static void quoteJson(StringBuilder s, String value){
+		s.append('"');
+		for(char c: value.toCharArray()){
+			switch(c){
+			case '"': s.append("\\\""); break;
+			case '\\': s.append("\\\\"); break;
+			case '\n': s.append("\\n"); break;
+			case '\r': s.append("\\r"); break;
+			case '\t': s.append("\\t"); break;
+			default:
+				if(c < 0x20){
+					s.append(String.format("\\u%04x", (int) c));
+				}else{
+					s.append(c);
+				}
+			}
+		}
+		s.append('"');
+	}
+	private static String quoteCsv(String value){
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0){
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+	/**
+	 * A helper method which splits tags that are joined together (e.g. "@a@b") back
+	 * into separate tags. Tags never contain '@' after the first character.
+	 */
+	private static String[] splitTags(String joined){
+		ArrayList<String> tags = new ArrayList<>();
+		int start = joined.indexOf('@');
+		while(start >= 0){
+			int end = joined.indexOf('@', start + 1);
+			tags.add(joined.substring(start, end < 0 ? joined.length() : end));
+			start = end;
+		}
+		return tags.toArray(new String[tags.size()]);
+	}
+	/**
+	 * A helper method which reads the text of one CSV row. Line breaks inside quotes
+	 * are part of the row; the row ends at the first line break outside of them.
+	 *
+	 * @return the row without its line break, or null at the end of the file
+	 */
+	private static String readCsvRow(BufferedReader reader) throws IOException{
+		StringBuilder row = new StringBuilder();
+		boolean quoted = false;
+		int c;
+		while((c = reader.read()) != -1){
+			if(!(quoted) && (c == '\n' || c == '\r')){
+				if(c == '\r'){
+					//a "\r\n" ends the row once
+					reader.mark(1);
+					if(reader.read() != '\n'){
+						reader.reset();
+					}
+				}
+				return row.toString();
+			}
+			if(c == '"'){
+				quoted = !(quoted);
+			}
+			row.append((char) c);
+		}
+		return row.length() == 0 ? null : row.toString();
+	}
+	private static List<String> parseCsvRow(String line) throws IOException{
+		ArrayList<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for(int i = 0; i < line.length(); i++){
+			char c = line.charAt(i);
+			if(quoted){
+				if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+					field.append('"');
+					i++;
+				}else if(c == '"'){
+					quoted = false;
+				}else{
+					field.append(c);
+				}
+			}else if(c == '"'){
+				quoted = true;
+			}else if(c == ','){
+				fields.add(field.toString());
+				field.setLength(0);
+			}else{
+				field.append(c);
+			}
+		}
+		if(quoted){
+			throw new IOException("unterminated quote in catalog row: " + line);
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+	/**
+	 * A helper method which reads one JSON line written by writeJson.
+	 */
+	private static Record parseJson(String line) throws IOException{
+		JsonReader json = new JsonReader(line);
+		Object value = json.readValue();
+		if(!(value instanceof Map)){
+			throw new IOException("malformed catalog line: " + line);
+		}
+		Map<?, ?> object = (Map<?, ?>) value;
+		if(!(object.get("path") instanceof String) || !(object.get("tags") instanceof List)){
+			throw new IOException("malformed catalog line: " + line);
+		}
+		List<?> tagList = (List<?>) object.get("tags");
+		String[] tags = new String[tagList.size()];
+		for(int i = 0; i < tags.length; i++){
+			tags[i] = String.valueOf(tagList.get(i));
+		}
+		Record record = new Record((String) object.get("path"), tags);
+		if(object.get("history") instanceof List){
+			for(Object entry: (List<?>) object.get("history")){
+				if(entry instanceof Map){
+					Object name = ((Map<?, ?>) entry).get("name");
+					Object time = ((Map<?, ?>) entry).get("time");
+					if(name instanceof String && time instanceof String){
+						record.history.add(new String[]{(String) name, (String) time});
+					}
+				}
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * One image read from a catalog file: its path, its tags and its history as
+	 * (name, time) pairs.
+	 */
+	private static class Record{
+		private final String path;
+		private final String[] tags;
+		private final ArrayList<String[]> history = new ArrayList<>();
+
+		Record(String path, String[] tags){
+			this.path = path;
+			this.tags = tags;
+		}
+	}
+
+	/**
+	 * A minimal reader for the JSON written by writeJson (objects, arrays and
+	 * strings). Objects are read as Maps, arrays as Lists.
+	 */
+	private static class JsonReader{
+		private final String text;
+		private int pos = 0;
+
+		JsonReader(String text){
+			this.text = text;
+		}
+		Object readValue() throws IOException{
+			skipSpace();
+			if(pos >= text.length()){
+				throw error();
+			}
+			char c = text.charAt(pos);
+			if(c == '{'){
+				pos++;
+				Map<String, Object> object = new HashMap<>();
+				skipSpace();
+				if(peek('}')){
+					return object;
+				}
+				do{
+					skipSpace();
+					String key = readString();
+					skipSpace();
+					expect(':');
+					object.put(key, readValue());
+					skipSpace();
+				}while(peek(','));
+				expect('}');
+				return object;
+			}else if(c == '['){
+				pos++;
+				List<Object> array = new ArrayList<>();
+				skipSpace();
+				if(peek(']')){
+					return array;
+				}
+				do{
+					array.add(readValue());
+					skipSpace();
+				}while(peek(','));
+				expect(']');
+				return array;
+			}else if(c == '"'){
+				return readString();
+			}
+			throw error();
+		}
+		private String readString() throws IOException{
+			expect('"');
+			StringBuilder s = new StringBuilder();
+			while(pos < text.length()){
+				char c = text.charAt(pos++);
+				if(c == '"'){
+					return s.toString();
+				}
+				if(c != '\\'){
+					s.append(c);
+					continue;
+				}
+				if(pos >= text.length()){
+					break;
+				}
+				char e = text.charAt(pos++);
+				switch(e){
+				case 'n': s.append('\n'); break;
+				case 'r': s.append('\r'); break;
+				case 't': s.append('\t'); break;
+				case 'b': s.append('\b'); break;
+				case 'f': s.append('\f'); break;
+				case 'u':
+					if(pos + 4 > text.length()){
+						throw error();
+					}
+					try{
+						s.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					}catch(NumberFormatException ex){
+						throw error();
+					}
+					pos += 4;
+					break;
+				default: s.append(e);
+				}
+			}
+			throw error();
+		}
+		private boolean peek(char c){
+			if(pos < text.length() && text.charAt(pos) == c){
+				pos++;
+				return true;
+			}
+			return false;
+		}
+		private void expect(char c) throws IOException{
+			if(!(peek(c))){
+				throw error();
+			}
+		}
+		private void skipSpace(){
+			while(pos < text.length() && Character.isWhitespace(text.charAt(pos))){
+				pos++;
+			}
+		}
+		private IOException error(){
+			return new IOException("malformed catalog json at column " + pos + ": " + text);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package photo_renamer;
+import java.io.File;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+
+public class DirectoryNode implements Serializable{
+
+	/**
+	 * A DirectoryNode is one directory in a tree of interned directories. Every
+	 * directory only stores its own name and its parent, so the prefix shared by the
+	 * images of a deep tree is stored once instead of once per image, both in memory
+	 * and in ".images.ser" (serialization writes each node once). Nodes are interned:
+	 * there is only one node per directory, also after deserialization. Full paths are
+	 * only built when a File is needed for I/O.
+	 *
+	 * serialVersionUID: generated so this class can be serialized
+	 * roots: the node of every file system root, keyed by its name (e.g. "/")
+	 * parent: the directory containing this one, or null for a root
+	 * name: the name of this directory (for a root, the root itself)
+	 * children: the interned nodes of the directories in this one
+	 */
+	private static final long serialVersionUID = -2750834191570239514L;
+	private static final HashMap<String, DirectoryNode> roots = new HashMap<>();
+	private final DirectoryNode parent;
+	private final String name;
+	private transient HashMap<String, DirectoryNode> children;
+
+	private DirectoryNode(DirectoryNode parent, String name){
+		this.parent = parent;
+		this.name = name;
+	}
+	/**
+	 * Gives the interned node of the given directory.
+	 *
+	 * @param directory: a directory
+	 * @return the node of the directory
+	 */
+	public static synchronized DirectoryNode of(File directory){
+		Path path = directory.getAbsoluteFile().toPath().normalize();
+		DirectoryNode node = root(path.getRoot().toString());
+		for(Path element: path){
+			node = node.child(element.toString());
+		}
+		return node;
+	}
+	/**
+	 * Gives the interned node of a directory in this one.
+	 *
+	 * @param childName: the name of the directory in this one
+	 * @return the node of that directory
+	 */
+	public DirectoryNode child(String childName){
+		synchronized(DirectoryNode.class){
+			if(children == null){
+				children = new HashMap<>();
+			}
+			DirectoryNode child = children.get(childName);
+			if(child == null){
+				child = new DirectoryNode(this, childName);
+				children.put(childName, child);
+			}
+			return child;
+		}
+	}
+	/**
+	 * Gives the directory containing this one.
+	 *
+	 * @return the parent node, or null if this is a root
+	 */
+	public DirectoryNode getParent(){
+		return parent;
+	}
+	/**
+	 * Builds the File of this directory.
+	 *
+	 * @return the File of this directory
+	 */
+	public File toFile(){
+		return parent == null ? new File(name) : new File(parent.toFile(), name);
+	}
+	/**
+	 * Builds the File of a file in this directory.
+	 *
+	 * @param fileName: the name of the file
+	 * @return the File of the file in this directory
+	 */
+	public File resolve(String fileName){
+		return new File(toFile(), fileName);
+	}
+	@Override
+	public String toString(){
+		return toFile().getPath();
+	}
+	private static synchronized DirectoryNode root(String rootName){
+		DirectoryNode root = roots.get(rootName);
+		if(root == null){
+			root = new DirectoryNode(null, rootName);
+			roots.put(rootName, root);
+		}
+		return root;
+	}
+	/**
+	 * Replaces a deserialized node by the interned node of the same directory. The
+	 * parent is always read (and replaced) before its children.
+	 */
+	private Object readResolve() throws ObjectStreamException{
+		return parent == null ? root(name) : parent.child(name);
+	}
+}
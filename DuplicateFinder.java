@@ -0,0 +1,269 @@
+package photo_renamer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public class DuplicateFinder{
+
+	/**
+	 * The DuplicateFinder finds images whose pictures look alike (see PerceptualHash),
+	 * such as re-exports or shots taken a moment apart. The hash of every image is
+	 * computed once, in parallel, and kept in the ".hashes.ser" of its directory keyed
+	 * by the identity of the file (its inode where the file system has one, so a
+	 * rename keeps the hash, together with its size and modification time, so a
+	 * changed file is hashed again). All hashes are indexed in a BKTree, so finding the
+	 * images similar to one image does not compare it against every other image.
+	 *
+	 * HASH_FILE: the name of the hash cache in every directory with images
+	 * HASHERS: the number of threads decoding pictures
+	 * CHUNK: how many pictures one hashing task decodes
+	 * DEFAULT_DISTANCE: how many of the 64 bits two hashes may differ in for their
+	 * pictures to count as duplicates
+	 *
+	 * hashes: the hash of every indexed image (images are compared by identity)
+	 * index: all hashes, searchable by Hamming distance
+	 */
+	static final String HASH_FILE = ".hashes.ser";
+	static final int HASHERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	static final int CHUNK = 32;
+	static final int DEFAULT_DISTANCE = 8;
+	private final IdentityHashMap<Image, Long> hashes = new IdentityHashMap<>();
+	private final BKTree<Image> index = new BKTree<>();
+
+	/**
+	 * Hashes every given image that is not indexed yet and adds it to the index.
+	 * Hashes are taken from the cache of each directory when the file did not change;
+	 * pictures that can not be decoded are skipped. Every directory with an image that
+	 * is not indexed yet is handled as a whole, so entries of its cache for files that
+	 * are gone (or changed) can be dropped.
+	 *
+	 * @param images: the images to index, all images of the library
+	 * @return the number of images in the index
+	 */
+	public synchronized int index(Image[] images){
+		HashSet<DirectoryNode> unindexed = new HashSet<>();
+		for(Image image: images){
+			if(!(hashes.containsKey(image))){
+				unindexed.add(image.getParent());
+			}
+		}
+		LinkedHashMap<DirectoryNode, List<Image>> byDirectory = new LinkedHashMap<>();
+		for(Image image: images){
+			if(unindexed.contains(image.getParent())){
+				List<Image> inDirectory = byDirectory.get(image.getParent());
+				if(inDirectory == null){
+					inDirectory = new ArrayList<>();
+					byDirectory.put(image.getParent(), inDirectory);
+				}
+				inDirectory.add(image);
+			}
+		}
+		//the caches are read in parallel, the missing pictures of every directory are
+		//hashed in chunks so a single large directory keeps every hasher busy, and
+		//each cache is written back once with all of its new hashes
+		ExecutorService hashers = Executors.newFixedThreadPool(HASHERS);
+		try{
+			List<Future<CachedDirectory>> reads = new ArrayList<>();
+			for(Map.Entry<DirectoryNode, List<Image>> directory: byDirectory.entrySet()){
+				reads.add(hashers.submit(() -> new CachedDirectory(directory.getKey(), directory.getValue())));
+			}
+			List<CachedDirectory> directories = new ArrayList<>();
+			Map<CachedDirectory, List<Future<Map<Image, Long>>>> chunks = new IdentityHashMap<>();
+			for(Future<CachedDirectory> read: reads){
+				CachedDirectory directory = read.get();
+				directories.add(directory);
+				List<Future<Map<Image, Long>>> inDirectory = new ArrayList<>();
+				for(int i = 0; i < directory.missing.size(); i += CHUNK){
+					List<Image> chunk = directory.missing.subList(i, Math.min(i + CHUNK, directory.missing.size()));
+					inDirectory.add(hashers.submit(() -> hashChunk(chunk)));
+				}
+				chunks.put(directory, inDirectory);
+			}
+			for(CachedDirectory directory: directories){
+				for(Future<Map<Image, Long>> chunk: chunks.get(directory)){
+					directory.hashed(chunk.get());
+				}
+				directory.write();
+				for(Map.Entry<Image, Long> hash: directory.hashed.entrySet()){
+					if(hashes.put(hash.getKey(), hash.getValue()) == null){
+						index.add(hash.getValue(), hash.getKey());
+					}
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}catch(ExecutionException e){
+			throw new IllegalStateException(e.getCause());
+		}finally{
+			hashers.shutdownNow();
+		}
+		return hashes.size();
+	}
+	/**
+	 * Gives the indexed images that look like the given image, most similar first.
+	 *
+	 * @param image: the image (it must be indexed)
+	 * @param maxDistance: how many bits the hashes may differ in
+	 * @return the similar images, without the image itself
+	 */
+	public synchronized List<Image> similar(Image image, int maxDistance){
+		Long hash = hashes.get(image);
+		if(hash == null){
+			return new ArrayList<>();
+		}
+		List<Image> found = index.search(hash, maxDistance);
+		found.remove(image);
+		Collections.sort(found, (a, b) -> Integer.compare(PerceptualHash.distance(hash, hashes.get(a)),
+				PerceptualHash.distance(hash, hashes.get(b))));
+		return found;
+	}
+	/**
+	 * Gives, for every indexed image that lacks some tag of an image that looks like
+	 * it, all those tags: its own tags first, then the missing ones. Tags are only
+	 * shared between two images that are themselves within the given distance, never
+	 * through a chain of images in between, so a run of similar (e.g. dark or plain)
+	 * pictures can not spread a tag to pictures that look nothing alike.
+	 *
+	 * @param maxDistance: how many bits the hashes of two duplicates may differ in
+	 * @return the images to retag and the tags each should end up with
+	 */
+	public synchronized Map<Image, String[]> propagatedTags(int maxDistance){
+		Map<Image, String[]> targets = new LinkedHashMap<>();
+		for(Map.Entry<Image, Long> indexed: hashes.entrySet()){
+			Image image = indexed.getKey();
+			LinkedHashSet<String> tags = new LinkedHashSet<>(Arrays.asList(image.getCurrTags()));
+			boolean missing = false;
+			for(Image duplicate: index.search(indexed.getValue(), maxDistance)){
+				if(duplicate != image){
+					missing |= tags.addAll(Arrays.asList(duplicate.getCurrTags()));
+				}
+			}
+			if(missing){
+				targets.put(image, tags.toArray(new String[tags.size()]));
+			}
+		}
+		return targets;
+	}
+	/**
+	 * A helper method which hashes pictures that are not in any cache; pictures that
+	 * can not be decoded are left out.
+	 */
+	private static Map<Image, Long> hashChunk(List<Image> images){
+		Map<Image, Long> hashed = new IdentityHashMap<>();
+		for(Image image: images){
+			try{
+				hashed.put(image, PerceptualHash.of(image.getImage()));
+			}catch(IOException | RuntimeException e){
+				//not a picture ImageIO can decode; it simply has no duplicates
+			}
+		}
+		return hashed;
+	}
+	/**
+	 * A helper method which gives what identifies the contents of a file: its file
+	 * key (or its name where the file system has none), size and modification time.
+	 */
+	private static String identity(File file){
+		try{
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			Object fileKey = attributes.fileKey();
+			return (fileKey != null ? fileKey.toString() : file.getName()) + "/" + attributes.size() + "/"
+					+ attributes.lastModifiedTime().toMillis();
+		}catch(IOException e){
+			return null;
+		}
+	}
+	@SuppressWarnings("unchecked") //the cache is always a HashMap of keys to hashes
+	private static HashMap<String, Long> readCache(File cacheFile){
+		if(!(cacheFile.exists())){
+			return new HashMap<>();
+		}
+		try(ObjectInputStream in = new ObjectInputStream(new FileInputStream(cacheFile))){
+			return (HashMap<String, Long>) in.readObject();
+		}catch(IOException | ClassNotFoundException e){
+			System.out.println("could not read hash cache, hashing again");
+			return new HashMap<>();
+		}
+	}
+
+	/**
+	 * The hash cache of one directory while it is being brought up to date. The images
+	 * are all images of the directory, so cached hashes of files that were deleted,
+	 * renamed away or changed are dropped when the cache is written.
+	 */
+	private static class CachedDirectory{
+		private final File cacheFile;
+		private final HashMap<String, Long> cache;
+		private final Map<Image, String> keys = new IdentityHashMap<>();
+		private final Map<Image, Long> hashed = new IdentityHashMap<>();
+		private final List<Image> missing = new ArrayList<>();
+		private boolean changed = false;
+
+		/**
+		 * Reads the cache of a directory and takes the hash of every image whose file
+		 * did not change from it.
+		 */
+		CachedDirectory(DirectoryNode directory, List<Image> images){
+			this.cacheFile = directory.resolve(HASH_FILE);
+			this.cache = readCache(cacheFile);
+			for(Image image: images){
+				String key = identity(image.getImage());
+				if(key == null){
+					continue;
+				}
+				keys.put(image, key);
+				Long hash = cache.get(key);
+				if(hash == null){
+					missing.add(image);
+				}else{
+					hashed.put(image, hash);
+				}
+			}
+		}
+		/**
+		 * Adds the hashes of some of the missing images.
+		 */
+		void hashed(Map<Image, Long> computed){
+			for(Map.Entry<Image, Long> hash: computed.entrySet()){
+				hashed.put(hash.getKey(), hash.getValue());
+				cache.put(keys.get(hash.getKey()), hash.getValue());
+				changed = true;
+			}
+		}
+		/**
+		 * Writes the cache back if it changed.
+		 */
+		void write(){
+			changed |= cache.keySet().retainAll(new HashSet<>(keys.values()));
+			if(!(changed)){
+				return;
+			}
+			try(ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(cacheFile))){
+				out.writeObject(cache);
+			}catch(IOException e){
+				System.out.println("could not write hash cache");
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package photo_renamer;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+public class HistoryArchive{
+
+	/**
+	 * The HistoryArchive is the cold tier of the name histories: when the history of an
+	 * image grows past TagLog.HOT_ENTRIES, its oldest names are moved out of the TagLog
+	 * (and so out of memory and out of the shard) into the ".history.gz" of the
+	 * directory of the image. The archive is only ever appended to: every spill adds one
+	 * gzip member holding some entries of one image and the offset of the previous
+	 * member of that image, so a TagLog only has to remember where its newest member
+	 * starts, and its archived history is read back by following the chain.
+	 *
+	 * ARCHIVE_FILE: the name of the archive in every directory with images
+	 */
+	static final String ARCHIVE_FILE = ".history.gz";
+
+	/**
+	 * Moves the oldest names of every TagLog that has grown too big to the archive.
+	 * A TagLog only forgets its names once they are written, so a failed write loses
+	 * nothing.
+	 *
+	 * @param archive: the archive of the directory of the images
+	 * @param images: the images of the directory
+	 */
+	static void spill(File archive, List<Image> images){
+		List<TagLog> full = new ArrayList<>();
+		for(Image image: images){
+			if(image.getLog().isFull()){
+				full.add(image.getLog());
+			}
+		}
+		if(full.isEmpty()){
+			return;
+		}
+		long offset = archive.length();
+		try(FileOutputStream out = new FileOutputStream(archive, true)){
+			for(TagLog log: full){
+				Map<String, String> oldest = log.oldest();
+				byte[] member = member(log.archived(), oldest);
+				out.write(member);
+				log.forget(oldest.keySet(), offset);
+				offset += member.length;
+			}
+		}catch(IOException e){
+			System.out.println("could not archive history");
+			e.printStackTrace();
+		}
+	}
+	/**
+	 * Reads the archived names of one image back.
+	 *
+	 * @param archive: the archive of the directory of the image
+	 * @param newest: where the newest member of the image starts, plus one (0 if
+	 * nothing is archived)
+	 * @return the archived names and the times they were created, oldest first
+	 */
+	static LinkedHashMap<String, String> read(File archive, long newest){
+		List<String[]> members = new ArrayList<>();
+		long next = newest;
+		try{
+			while(next != 0){
+				try(FileInputStream in = new FileInputStream(archive)){
+					in.getChannel().position(next - 1);
+					try(DataInputStream data = new DataInputStream(new GZIPInputStream(in))){
+						next = data.readLong();
+						int count = data.readInt();
+						String[] entries = new String[2 * count];
+						for(int i = 0; i < entries.length; i++){
+							entries[i] = data.readUTF();
+						}
+						members.add(entries);
+					}
+				}
+			}
+		}catch(IOException e){
+			System.out.println("could not read archived history");
+			e.printStackTrace();
+		}
+		LinkedHashMap<String, String> names = new LinkedHashMap<>();
+		for(int m = members.size() - 1; m >= 0; m--){
+			String[] entries = members.get(m);
+			for(int i = 0; i < entries.length; i += 2){
+				if(!(names.containsKey(entries[i]))){
+					names.put(entries[i], entries[i + 1]);
+				}
+			}
+		}
+		return names;
+	}
+	/**
+	 * A helper method which compresses one member: the link to the previous member of
+	 * the image followed by the names and their times.
+	 */
+	private static byte[] member(long previous, Map<String, String> entries) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(DataOutputStream data = new DataOutputStream(new GZIPOutputStream(bytes))){
+			data.writeLong(previous);
+			data.writeInt(entries.size());
+			for(Map.Entry<String, String> entry: entries.entrySet()){
+				data.writeUTF(entry.getKey());
+				data.writeUTF(entry.getValue());
+			}
+		}
+		return bytes.toByteArray();
+	}
+}
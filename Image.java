@@ -1,10 +1,16 @@
 package photo_renamer;
 import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Map;
 
 
 public class Image implements Serializable{
@@ -17,15 +23,14 @@ public class Image implements Serializable{
 	 * serialVersionUID: A constant created by eclipse for this class to be Serializeable
 	 * tags: A list of all current tags this image has
 	 * name: The name of this image
-	 * location: The directory in which this image is stored
-	 * image: The file of this image
+	 * parent: The (interned) directory in which this image is stored; the full path
+	 * of the image is only built when the file is needed
 	 * log: The TagLog associated with this image
 	 */
 	private static final long serialVersionUID = 733556395704688L;
 	private ArrayList<String> curTags = new ArrayList<>();
 	private String name;
-	private String location;
-	private File image;
+	private DirectoryNode parent;
 	private TagLog log;
 	
 	/**
@@ -38,9 +43,9 @@ public class Image implements Serializable{
 	
 	Image(String name, File image, TagLog log){
 		this.name = name;
-		this.image = image;
-		this.location = image.getPath();
+		this.parent = DirectoryNode.of(image.getAbsoluteFile().getParentFile());
 		this.log = log;
+		this.log.setArchive(this.parent.resolve(HistoryArchive.ARCHIVE_FILE));
 		logAdder(this.name);
 	}
 	/**
@@ -49,7 +54,15 @@ public class Image implements Serializable{
 	 * @return the File of the image
 	 */
 	public File getImage() {
-		return image;
+		return parent.resolve(name);
+	}
+	/**
+	 * Gives the directory this image is stored in
+	 * 
+	 * @return the directory node of this image
+	 */
+	DirectoryNode getParent(){
+		return parent;
 	}
 	/**
 	 * Gives the name of this image
@@ -74,27 +87,38 @@ public class Image implements Serializable{
 	 * @return All names this image has had
 	 */
 	public String[] allNames(){
-		return this.log.viewAllTags().toArray(new String[this.log.viewAllTags().size()]);
+		Collection<String> names = this.log.viewAllTags();
+		return names.toArray(new String[names.size()]);
 	}
 	/**
 	 * adds the given tag to this image. Renames the image to include this Tag.
 	 * 
 	 * @param Tag: the tag to be added to this image
+	 * @throws RenameException: thrown if the file could not be renamed (e.g. another
+	 * file already has the new name); the image is left unchanged
+	 */
+	public void addTag(String Tag) throws RenameException{
+		addTag(Tag, null);
+	}
+	/**
+	 * adds the given tag to this image, renaming it through the given open directory.
+	 * 
+	 * @param Tag: the tag to be added to this image
+	 * @param directory: the open directory of this image, or null to rename it on its own
+	 * @throws RenameException: thrown if the file could not be renamed; the image is
+	 * left unchanged
 	 */
-	public void addTag(String Tag) {
+	void addTag(String Tag, RenameEngine directory) throws RenameException{
 		//modifies the name of the image to include the tag
-		this.name = this.name.substring(0, this.name.lastIndexOf(".")) + 
+		String newName = this.name.substring(0, this.name.lastIndexOf(".")) + 
 				Tag + this.name.substring(this.name.lastIndexOf("."),
 				this.name.length());
-		curTags.add(Tag);
-		//if the modified name is new it adds it to the log
-		if (!log.contains(this.name)){
-			logAdder(this.name);
-		}
 		//changes the file name to include the tag
-		this.image.renameTo(new File(this.location.substring(0, this.location.lastIndexOf("/")) + "/" + this.name));
-		this.image = new File(this.location.substring(0, this.location.lastIndexOf("/")) + "/" + this.name);
-		this.location = this.image.getPath();
+		renameFile(newName, directory);
+		this.name = newName;
+		curTags.add(Tag);
+		//if the modified name is new it is added to the log
+		logAdder(this.name);
 	}
 	/**
 	 * Deletes a currently existing tag from this image
@@ -102,34 +126,36 @@ public class Image implements Serializable{
 	 * @param Tag: the tag to be deleted form this image
 	 * @throws TagNotFoundException: this exception is thrown if the tag to be deleted
 	 * is not a tag of this image
+	 * @throws RenameException: thrown if the file could not be renamed; the image is
+	 * left unchanged
+	 */
+	public void deleteTag(String Tag) throws TagNotFoundException, RenameException{
+		deleteTag(Tag, null);
+	}
+	/**
+	 * Deletes a currently existing tag from this image, renaming it through the given
+	 * open directory.
+	 * 
+	 * @param Tag: the tag to be deleted form this image
+	 * @param directory: the open directory of this image, or null to rename it on its own
+	 * @throws TagNotFoundException: thrown if the tag is not a tag of this image
+	 * @throws RenameException: thrown if the file could not be renamed; the image is
+	 * left unchanged
 	 */
-	public void deleteTag(String Tag) throws TagNotFoundException{
+	void deleteTag(String Tag, RenameEngine directory) throws TagNotFoundException, RenameException{
 		//check if the image has the tag
 		if(!(curTags.contains(Tag))){
 			throw new TagNotFoundException();
 		}
-		int index = this.curTags.indexOf(Tag);
-		// Assume the there is no @ in initial name. get the name of the original image
-		// (with no tags) 
-		String initialName = this.name.substring(0,this.name.indexOf("@"));
-		// get the extension
-		String ext = this.name.substring(this.name.lastIndexOf("."), this.name.length());
-		//remove the tag from the current tag list 
-		this.curTags.remove(index);
-		//add all the current tags back to the initial name
-		for (String i: this.curTags){
-			initialName += i;
-		}
-		//set the name of the image to it's initial name (with tags) and the extension
-		this.name = initialName + ext;
+		//the remaining tags, in order
+		ArrayList<String> remaining = new ArrayList<>(this.curTags);
+		remaining.remove(Tag);
+		String newName = nameWithTags(remaining.toArray(new String[remaining.size()]));
 		//change the name of the file itself
-		this.image.renameTo(new File (this.location.substring(0, this.location.lastIndexOf("/")) 
-				+ "/" + this.name));
-		this.image = new File(this.location.substring(0, this.location.lastIndexOf("/")) + "/" + this.name);
-		this.location = this.image.getPath();
-		if (!this.log.contains(this.name)){
-			logAdder(this.name);
-		}
+		renameFile(newName, directory);
+		this.name = newName;
+		this.curTags = remaining;
+		logAdder(this.name);
 	}
 	/**
 	 * Turns the name of this image back into a previous name this image has had
@@ -137,14 +163,29 @@ public class Image implements Serializable{
 	 * @param name: the name to revert to
 	 * @throws TagNotFoundException: this exception is thrown if this image has never
 	 * had the name to revert to
+	 * @throws RenameException: thrown if the file could not be renamed; the image is
+	 * left unchanged
+	 */
+	public void revertOlderName(String name) throws TagNotFoundException, RenameException{
+		revertOlderName(name, null);
+	}
+	/**
+	 * Turns the name of this image back into a previous name, renaming it through the
+	 * given open directory.
+	 * 
+	 * @param name: the name to revert to
+	 * @param directory: the open directory of this image, or null to rename it on its own
+	 * @throws TagNotFoundException: thrown if this image has never had the name
+	 * @throws RenameException: thrown if the file could not be renamed; the image is
+	 * left unchanged
 	 */
-	public void revertOlderName(String name) throws TagNotFoundException{
+	void revertOlderName(String name, RenameEngine directory) throws TagNotFoundException, RenameException{
 		//check if given name is actually an older name
 		if(!(this.log.contains(name))){
 			throw new TagNotFoundException();
 		}
-		//set the name of the image to it's older name
-		this.name = name;
+		//the older name decides which tags the image has (none if it has no "@")
+		ArrayList<String> olderTags = new ArrayList<>();
 		//assume tags do not contain "@" character
 		if(name.contains("@")){
 			//if the older image name has tags add those tags to the image.
@@ -154,19 +195,52 @@ public class Image implements Serializable{
 					indexes.add(i);
 				}
 			}
-			curTags.clear();
 			for(int i=0; i < indexes.size(); i++){
 				if(!(i == indexes.size()-1)){
-					curTags.add(name.substring(indexes.get(i), indexes.get(i+1)));
+					olderTags.add(name.substring(indexes.get(i), indexes.get(i+1)));
 				}else{
-					curTags.add(name.substring(indexes.get(i), name.indexOf('.')));
+					olderTags.add(name.substring(indexes.get(i), name.indexOf('.')));
 				}
 			}
 		}
 		//change the name of the file itself
-		this.image.renameTo(new File(this.location.substring(0, this.location.lastIndexOf("/")) + "/" + name));
-		this.image = new File(this.location.substring(0, this.location.lastIndexOf("/")) + "/" + name);
-		this.location = this.image.getPath();
+		renameFile(name, directory);
+		//set the name of the image to it's older name
+		this.name = name;
+		this.curTags = olderTags;
+	}
+	/**
+	 * Gives the tags of this image to exactly the given tags with a single rename.
+	 * 
+	 * @param tags: the tags this image should have, in order
+	 * @param directory: the open directory of this image, or null to open it here
+	 * @throws RenameException: thrown if the file could not be renamed; the image is
+	 * left unchanged
+	 */
+	void retag(String[] tags, RenameEngine directory) throws RenameException{
+		String newName = nameWithTags(tags);
+		renameFile(newName, directory);
+		this.name = newName;
+		this.curTags = new ArrayList<>(Arrays.asList(tags));
+		logAdder(this.name);
+	}
+	/**
+	 * Gives the name this image would have with exactly the given tags.
+	 * 
+	 * @param tags: the tags, in order
+	 * @return the initial name of this image followed by the tags and the extension
+	 */
+	String nameWithTags(String[] tags){
+		// Assume the there is no @ in initial name. get the name of the original image
+		// (with no tags) 
+		int ext = this.name.lastIndexOf(".");
+		int firstTag = this.name.indexOf("@");
+		String initialName = this.name.substring(0, firstTag >= 0 && firstTag < ext ? firstTag : ext);
+		StringBuilder s = new StringBuilder(initialName);
+		for(String tag: tags){
+			s.append(tag);
+		}
+		return s.append(this.name.substring(ext)).toString();
 	}
 	/**
 	 * gives a string array of all the tags this image has currently
@@ -176,6 +250,70 @@ public class Image implements Serializable{
 	public String[] getCurrTags(){
 		return curTags.toArray(new String[curTags.size()]);
 	}
+	/**
+	 * Gives every name of this image and the time it was created, oldest first as far
+	 * as the names were archived (the archive is read once).
+	 *
+	 * @return all names and their creation times
+	 */
+	Map<String, String> history(){
+		return this.log.history();
+	}
+	/**
+	 * Gives the TagLog of this image.
+	 *
+	 * @return the TagLog of this image
+	 */
+	TagLog getLog(){
+		return this.log;
+	}
+	/**
+	 * Adds a name (and the time it was created) to the TagLog of this image unless
+	 * the image already has that name in its TagLog. Used when importing a catalog.
+	 *
+	 * @param name: the name to be added to the TagLog
+	 * @param time: the time the name was created
+	 */
+	void mergeHistory(String name, String time){
+		this.log.addTag(name, time);
+	}
+	/**
+	 * Sets the current tags of this image without renaming the file. Used when the
+	 * file already carries the tags in its name (e.g. a library copied from another
+	 * machine).
+	 *
+	 * @param tags: the tags the name of this image already contains
+	 */
+	void restoreTags(String[] tags){
+		this.curTags.clear();
+		this.curTags.addAll(Arrays.asList(tags));
+	}
+	/**
+	 * A helper function which renames the file of this image (in its directory) to the
+	 * given name. The NameIndex is checked first so a collision is reported before the
+	 * file system is touched; the rename itself is done by a RenameEngine, which says
+	 * why if it fails.
+	 * 
+	 * @param newName: the new name of the file
+	 * @param directory: the open directory of this image, or null to rename the file
+	 * on its own
+	 * @throws RenameException: thrown if the file could not be renamed
+	 */
+	private void renameFile(String newName, RenameEngine directory) throws RenameException{
+		if(newName.equals(this.name)){
+			return;
+		}
+		NameIndex names = NameIndex.shared();
+		if(names.isOccupied(this.parent, newName)){
+			throw new NameCollisionException(this.name, newName);
+		}
+		if(directory == null){
+			RenameEngine.renameOne(this.parent, this.name, newName);
+		}else{
+			directory.rename(this.name, newName);
+		}
+		names.moved(this.parent, this.name, newName);
+	}
 	/**
 	 * A helper function used to add names to the TagLog
 	 * 
@@ -186,5 +324,26 @@ public class Image implements Serializable{
 		Calendar cal = Calendar.getInstance();
 		this.log.addTag(tag, dateFormat.format(cal.getTime()));
 	}
+	/**
+	 * Reads an image written either by this version or by a version that stored the
+	 * full File and path of every image (those images are moved into the directory
+	 * tree when they are read).
+	 */
+	@SuppressWarnings("unchecked") //curTags is always an ArrayList of strings
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		this.curTags = (ArrayList<String>) fields.get("curTags", null);
+		this.name = (String) fields.get("name", null);
+		this.log = (TagLog) fields.get("log", null);
+		this.parent = (DirectoryNode) fields.get("parent", null);
+		if(this.parent == null){
+			File image = (File) fields.get("image", null);
+			if(image == null){
+				throw new InvalidObjectException("image has neither a directory nor a file");
+			}
+			this.parent = DirectoryNode.of(image.getAbsoluteFile().getParentFile());
+		}
+		this.log.setArchive(this.parent.resolve(HistoryArchive.ARCHIVE_FILE));
+	}
 	
 }
@@ -0,0 +1,16 @@
+package photo_renamer;
+
+public class ImageFileMissingException extends RenameException{
+
+	/**
+	 * This exception is thrown when an image is renamed but its file is no longer in
+	 * its directory (it was moved or deleted outside of the PhotoRenamer).
+	 * 
+	 * serialVersionUID: generated so this class can be serialized.
+	 */
+	private static final long serialVersionUID = 6617432873952143508L;
+	ImageFileMissingException(String name, Throwable cause){
+		super(name, "its file is missing", cause);
+	}
+
+}
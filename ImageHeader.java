@@ -0,0 +1,221 @@
+package photo_renamer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+public class ImageHeader{
+
+	/**
+	 * ImageHeader holds the metadata that can be read from the first few kilobytes of
+	 * an image file without decoding any pixels: its dimensions and, for JPEG files
+	 * with EXIF data, the date it was taken and the camera that took it. JPEG, GIF and
+	 * BMP headers are parsed directly; other formats fall back to an ImageReader that
+	 * only reads the header.
+	 *
+	 * HEADER_BYTES: how much of the start of a file is read (EXIF data is at most 64KB)
+	 * width, height: the dimensions of the image as displayed, or -1 if unknown
+	 * dateTaken: the EXIF date the image was taken ("yyyy:MM:dd HH:mm:ss") or null
+	 * make, model: the EXIF make and model of the camera or null
+	 */
+	static final int HEADER_BYTES = 64 * 1024;
+	private int width = -1;
+	private int height = -1;
+	private String dateTaken;
+	private String make;
+	private String model;
+
+	private ImageHeader(){
+	}
+	/**
+	 * Reads the header of the given image file.
+	 *
+	 * @param file: the image file to read
+	 * @return the header of the file (fields that could not be read are left unknown)
+	 * @throws IOException: thrown if the file could not be read
+	 */
+	public static ImageHeader read(File file) throws IOException{
+		ImageHeader header = new ImageHeader();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			while(buffer.hasRemaining() && channel.read(buffer) > 0){
+				//keep reading until the buffer is full or the file ends
+			}
+		}
+		buffer.flip();
+		if(buffer.remaining() >= 4){
+			int b0 = buffer.get(0) & 0xFF, b1 = buffer.get(1) & 0xFF;
+			if(b0 == 0xFF && b1 == 0xD8){
+				header.parseJpeg(buffer);
+			}else if(b0 == 'G' && b1 == 'I' && buffer.remaining() >= 10){
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				header.width = buffer.getShort(6) & 0xFFFF;
+				header.height = buffer.getShort(8) & 0xFFFF;
+			}else if(b0 == 'B' && b1 == 'M' && buffer.remaining() >= 26){
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				header.width = Math.abs(buffer.getInt(18));
+				header.height = Math.abs(buffer.getInt(22));
+			}
+		}
+		if(header.width < 0){
+			header.readWithImageReader(file);
+		}
+		return header;
+	}
+	public int getWidth(){
+		return width;
+	}
+	public int getHeight(){
+		return height;
+	}
+	public String getDateTaken(){
+		return dateTaken;
+	}
+	public String getMake(){
+		return make;
+	}
+	public String getModel(){
+		return model;
+	}
+	/**
+	 * A helper method which walks the JPEG markers up to the start of the image data,
+	 * reading the frame size from the SOF marker and EXIF data from the APP1 marker.
+	 */
+	private void parseJpeg(ByteBuffer buffer){
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		int pos = 2;
+		int orientation = 1;
+		while(pos + 4 <= buffer.limit()){
+			if((buffer.get(pos) & 0xFF) != 0xFF){
+				break;
+			}
+			int marker = buffer.get(pos + 1) & 0xFF;
+			if(marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)){
+				pos += 2;
+				continue;
+			}
+			int length = buffer.getShort(pos + 2) & 0xFFFF;
+			int start = pos + 4;
+			if(marker == 0xE1 && start + 6 <= buffer.limit() && buffer.get(start) == 'E'
+					&& buffer.get(start + 1) == 'x' && buffer.get(start + 2) == 'i' && buffer.get(start + 3) == 'f'){
+				orientation = parseTiff(buffer, start + 6, Math.min(buffer.limit(), pos + 2 + length));
+			}else if(marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC
+					&& start + 5 <= buffer.limit()){
+				height = buffer.getShort(start + 1) & 0xFFFF;
+				width = buffer.getShort(start + 3) & 0xFFFF;
+				break;
+			}else if(marker == 0xDA){
+				break;
+			}
+			pos += 2 + length;
+		}
+		//EXIF orientations 5 to 8 mean the image is displayed rotated by 90 degrees
+		if(orientation >= 5 && orientation <= 8){
+			int w = width;
+			width = height;
+			height = w;
+		}
+	}
+	/**
+	 * A helper method which reads the TIFF structure inside an EXIF block. Offsets in
+	 * the block are unsigned 32 bit numbers, so they are checked against the end of
+	 * the block as longs (a corrupt offset must not wrap around to a valid index).
+	 *
+	 * @return the EXIF orientation of the image (1 if not present)
+	 */
+	private int parseTiff(ByteBuffer buffer, int tiff, int end){
+		if(tiff + 8 > end){
+			return 1;
+		}
+		ByteBuffer b = buffer.duplicate();
+		b.order(b.get(tiff) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		int orientation = 1;
+		long exifIfd = -1;
+		long ifd = tiff + unsigned(b, tiff + 4);
+		for(int pass = 0; pass < 2 && ifd > tiff && ifd + 2 <= end; pass++){
+			int entries = b.getShort((int) ifd) & 0xFFFF;
+			for(int i = 0; i < entries; i++){
+				long at = ifd + 2 + i * 12L;
+				if(at + 12 > end){
+					break;
+				}
+				int entry = (int) at;
+				int tag = b.getShort(entry) & 0xFFFF;
+				switch(tag){
+				case 0x010F: make = readAscii(b, tiff, entry, end); break;
+				case 0x0110: model = readAscii(b, tiff, entry, end); break;
+				case 0x0112: orientation = b.getShort(entry + 8) & 0xFFFF; break;
+				case 0x0132:
+					if(dateTaken == null){
+						dateTaken = readAscii(b, tiff, entry, end);
+					}
+					break;
+				case 0x9003: dateTaken = readAscii(b, tiff, entry, end); break;
+				case 0x8769: exifIfd = tiff + unsigned(b, entry + 8); break;
+				default: break;
+				}
+			}
+			//the second pass reads the EXIF sub-IFD (which has DateTimeOriginal)
+			ifd = exifIfd;
+		}
+		return orientation;
+	}
+	/**
+	 * A helper method which reads an ASCII value of a TIFF entry.
+	 */
+	private static String readAscii(ByteBuffer b, int tiff, int entry, int end){
+		long count = unsigned(b, entry + 4);
+		if(count <= 0 || count > end){
+			return null;
+		}
+		long offset = count <= 4 ? entry + 8 : tiff + unsigned(b, entry + 8);
+		if(offset + count > end){
+			return null;
+		}
+		byte[] bytes = new byte[(int) count];
+		for(int i = 0; i < count; i++){
+			bytes[i] = b.get((int) offset + i);
+		}
+		String value = new String(bytes, StandardCharsets.US_ASCII).trim();
+		int nul = value.indexOf('\0');
+		value = nul >= 0 ? value.substring(0, nul).trim() : value;
+		return value.isEmpty() ? null : value;
+	}
+	/**
+	 * A helper method which reads an unsigned 32 bit number of a TIFF structure.
+	 */
+	private static long unsigned(ByteBuffer b, int index){
+		return b.getInt(index) & 0xFFFFFFFFL;
+	}
+	/**
+	 * A helper method which asks ImageIO for the dimensions of the first image in the
+	 * file; ImageReaders only read as much of the file as the header needs for this.
+	 */
+	private void readWithImageReader(File file) throws IOException{
+		try(ImageInputStream in = ImageIO.createImageInputStream(file)){
+			if(in == null){
+				return;
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if(!(readers.hasNext())){
+				return;
+			}
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(in, true, true);
+				width = reader.getWidth(0);
+				height = reader.getHeight(0);
+			}finally{
+				reader.dispose();
+			}
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package photo_renamer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+
+public class LoadGenerator{
+
+	/**
+	 * The LoadGenerator measures the whole PhotoRenamer pipeline on a synthetic
+	 * library. It builds a reproducible tree of tiny placeholder JPEG, GIF and BMP files
+	 * (plus some files that are not images), opens it with a PhotoRenamer (the scan),
+	 * replays a random mix of operations from several threads against the back-end and
+	 * finally reopens the library (the rescan). It reports throughput, p50/p99 latency
+	 * per operation, the stages of both opens, the heap high-water mark and the bytes
+	 * written.
+	 *
+	 * The PhotoRenamer keeps its tag set and log under the home directory of the user,
+	 * so the run points "user.home" at a new temporary directory before the first
+	 * PhotoRenamer is created: the tags of the workload never reach the real tag set
+	 * or log. (This only works while the PhotoRenamer class is not loaded yet, so the
+	 * generator is run on its own, through main.)
+	 *
+	 * Run with: java photo_renamer.LoadGenerator [options]
+	 *   --library DIR   where to build the library (default: a new temporary directory;
+	 *                   use a tmpfs such as /dev/shm to take the disk out of the picture)
+	 *   --files N       number of image files (default 10000)
+	 *   --depth D       depth of the directory tree (default 3)
+	 *   --fanout F      subdirectories per directory (default 4)
+	 *   --threads T     threads replaying the workload (default 4)
+	 *   --ops M         operations per thread (default 2000)
+	 *   --mix SPEC      weights of the operations, e.g.
+	 *                   "tag=38,untag=24,revert=10,history=14,query=10,masstag=3,renametag=1"
+	 *   --tags K        number of distinct tags used (default 20)
+	 *   --seed S        seed of the library and the workload (default 1)
+	 *
+	 * Besides single changes and reads, the workload has two operations that go
+	 * through the batch path: "masstag" adds a tag to MASS_TAG_IMAGES random images at
+	 * once (see PhotoRenamer.applyTags) and "renametag" renames one tag of the
+	 * workload to another on every image carrying it (see TagRefactoring).
+	 *
+	 * OPERATIONS: the operations of the workload
+	 * MASS_TAG_IMAGES: how many images one "masstag" retags
+	 * EXTENSIONS: the extensions of the placeholder image files
+	 */
+	static final String[] OPERATIONS = {"tag", "untag", "revert", "history", "query", "masstag", "renametag"};
+	static final int MASS_TAG_IMAGES = 50;
+	private static final String[] EXTENSIONS = {"jpg", "gif", "bmp"};
+	private File library;
+	private int files = 10000;
+	private int depth = 3;
+	private int fanout = 4;
+	private int threads = 4;
+	private int ops = 2000;
+	private int tags = 20;
+	private long seed = 1;
+	private int[] weights = {38, 24, 10, 14, 10, 3, 1};
+
+	public static void main(String[] args) throws Exception{
+		LoadGenerator generator = new LoadGenerator();
+		try{
+			generator.parse(args);
+		}catch(IllegalArgumentException e){
+			System.out.println(e.getMessage());
+			System.exit(2);
+		}
+		generator.run();
+	}
+	/**
+	 * Builds the library, runs the workload and prints the report.
+	 *
+	 * @throws Exception: thrown if the library could not be built or an operation failed
+	 */
+	public void run() throws Exception{
+		if(library == null){
+			library = Files.createTempDirectory("photorenamer-load").toFile();
+		}
+		File home = Files.createTempDirectory("photorenamer-load-home").toFile();
+		new File(home, "Library/PhotoRenamer").mkdirs();
+		System.setProperty("user.home", home.getPath());
+		System.out.println("tag set and log kept in " + home);
+		long start = System.nanoTime();
+		int written = build();
+		report("build", written + " files in " + library, System.nanoTime() - start);
+
+		resetPeakHeap();
+		long bytesBefore = bytesWritten();
+		start = System.nanoTime();
+		PhotoRenamer renamer = new PhotoRenamer(library);
+		report("scan", renamer.getImages().length + " images", System.nanoTime() - start);
+		System.out.print(renamer.getStartupTimings().report());
+
+		Image[] images = renamer.getImages();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<long[][]>> results = new ArrayList<>();
+		AtomicInteger failures = new AtomicInteger();
+		start = System.nanoTime();
+		for(int t = 0; t < threads; t++){
+			Random random = new Random(seed * 31 + t);
+			results.add(pool.submit(() -> replay(renamer, images, random, failures)));
+		}
+		List<List<Long>> latencies = new ArrayList<>();
+		for(int i = 0; i < OPERATIONS.length; i++){
+			latencies.add(new ArrayList<Long>());
+		}
+		for(Future<long[][]> result: results){
+			long[][] perOperation = result.get();
+			for(int i = 0; i < OPERATIONS.length; i++){
+				for(long latency: perOperation[i]){
+					latencies.get(i).add(latency);
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+		int total = threads * ops;
+		report("workload", String.format("%d ops, %d threads, %.0f ops/s, %d failed", total, threads,
+				total / (elapsed / 1e9), failures.get()), elapsed);
+		List<Long> all = new ArrayList<>();
+		for(int i = 0; i < OPERATIONS.length; i++){
+			all.addAll(latencies.get(i));
+			printLatencies(OPERATIONS[i], latencies.get(i));
+		}
+		printLatencies("all", all);
+		renamer.close();
+		PhotoRenamer.closeLog();
+
+		start = System.nanoTime();
+		PhotoRenamer reopened = new PhotoRenamer(library);
+		report("rescan", reopened.getImages().length + " images", System.nanoTime() - start);
+		System.out.print(reopened.getStartupTimings().report());
+		reopened.close();
+		PhotoRenamer.closeLog();
+
+		System.out.println(String.format("heap high-water mark: %.1f MB", peakHeap() / 1048576.0));
+		long bytes = bytesWritten();
+		System.out.println(bytes < 0 || bytesBefore < 0 ? "bytes written: unavailable on this platform"
+				: String.format("bytes written: %.1f MB", (bytes - bytesBefore) / 1048576.0));
+	}
+	/**
+	 * A helper method which replays the operations of one thread.
+	 *
+	 * @return the latencies in nanoseconds, per operation
+	 */
+	private long[][] replay(PhotoRenamer renamer, Image[] images, Random random, AtomicInteger failures){
+		long[][] latencies = new long[OPERATIONS.length][ops];
+		int[] counts = new int[OPERATIONS.length];
+		int weightSum = 0;
+		for(int w: weights){
+			weightSum += w;
+		}
+		for(int n = 0; n < ops; n++){
+			int pick = random.nextInt(weightSum);
+			int op = 0;
+			while(pick >= weights[op]){
+				pick -= weights[op];
+				op++;
+			}
+			Image image = images[random.nextInt(images.length)];
+			int tagNumber = random.nextInt(tags);
+			String tag = "@t" + tagNumber;
+			long start = System.nanoTime();
+			try{
+				switch(OPERATIONS[op]){
+				case "tag":
+					renamer.addTag(image, tag);
+					break;
+				case "untag":
+					String[] current = image.getCurrTags();
+					if(current.length > 0){
+						renamer.deleteTag(image, current[random.nextInt(current.length)]);
+					}
+					break;
+				case "revert":
+					String[] names = renamer.viewImageNames(image);
+					renamer.olderName(image, names[random.nextInt(names.length)]);
+					break;
+				case "history":
+					renamer.viewImageLog(image);
+					break;
+				case "masstag":
+					Map<Image, String[]> targets = new LinkedHashMap<>();
+					for(int i = 0; i < MASS_TAG_IMAGES; i++){
+						Image target = images[random.nextInt(images.length)];
+						List<String> withTag = new ArrayList<>(Arrays.asList(target.getCurrTags()));
+						if(!(withTag.contains(tag))){
+							withTag.add(tag);
+						}
+						targets.put(target, withTag.toArray(new String[withTag.size()]));
+					}
+					if(!(renamer.applyTags(targets).isEmpty())){
+						//some images collided or were changed by another thread
+						failures.incrementAndGet();
+					}
+					break;
+				case "renametag":
+					//to any other tag of the workload
+					renamer.renameTag(tag, "@t" + (tagNumber + 1 + random.nextInt(Math.max(1, tags - 1))) % tags);
+					break;
+				default:
+					renamer.getTagStatistics().coOccurring(tag);
+					break;
+				}
+			}catch(ImageNotFoundException | TagNotFoundException | RenameException | RuntimeException e){
+				//another thread changed the image in between; counted, not fatal
+				failures.incrementAndGet();
+			}
+			latencies[op][counts[op]++] = System.nanoTime() - start;
+		}
+		for(int i = 0; i < OPERATIONS.length; i++){
+			latencies[i] = Arrays.copyOf(latencies[i], counts[i]);
+		}
+		return latencies;
+	}
+	/**
+	 * A helper method which writes the synthetic library: a tree of the given depth
+	 * and fanout with the image files spread over all its directories and one file
+	 * that is not an image for every ten images.
+	 *
+	 * @return the number of files written
+	 */
+	private int build() throws IOException{
+		Random random = new Random(seed);
+		List<File> directories = new ArrayList<>();
+		addDirectories(library, 0, directories);
+		byte[][] placeholders = new byte[EXTENSIONS.length][];
+		for(int i = 0; i < EXTENSIONS.length; i++){
+			placeholders[i] = placeholder(EXTENSIONS[i], random);
+		}
+		byte[] text = "not an image\n".getBytes(StandardCharsets.UTF_8);
+		int written = 0;
+		for(int i = 0; i < files; i++){
+			File directory = directories.get(random.nextInt(directories.size()));
+			int type = random.nextInt(EXTENSIONS.length);
+			written += write(new File(directory, String.format("img%07d.%s", i, EXTENSIONS[type])), placeholders[type]);
+			if(i % 10 == 9){
+				written += write(new File(directory, String.format("note%07d.txt", i)), text);
+			}
+		}
+		return written;
+	}
+	private void addDirectories(File directory, int level, List<File> directories) throws IOException{
+		if(!(directory.isDirectory()) && !(directory.mkdirs())){
+			throw new IOException("could not create " + directory);
+		}
+		directories.add(directory);
+		if(level < depth){
+			for(int i = 0; i < fanout; i++){
+				addDirectories(new File(directory, String.format("d%d-%d", level, i)), level + 1, directories);
+			}
+		}
+	}
+	private static byte[] placeholder(String extension, Random random) throws IOException{
+		BufferedImage pixel = new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB);
+		pixel.setRGB(0, 0, random.nextInt(0xFFFFFF));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(pixel, extension.equals("jpg") ? "jpeg" : extension, out);
+		return out.toByteArray();
+	}
+	private static int write(File file, byte[] bytes) throws IOException{
+		if(file.exists()){
+			//the library was built before with the same seed
+			return 0;
+		}
+		try(FileOutputStream out = new FileOutputStream(file)){
+			out.write(bytes);
+		}
+		return 1;
+	}
+	private static void printLatencies(String operation, List<Long> latencies){
+		if(latencies.isEmpty()){
+			return;
+		}
+		long[] sorted = new long[latencies.size()];
+		for(int i = 0; i < sorted.length; i++){
+			sorted[i] = latencies.get(i);
+		}
+		Arrays.sort(sorted);
+		System.out.println(String.format("  %-10s n=%-7d p50=%8.3f ms  p99=%8.3f ms  max=%8.3f ms", operation, sorted.length,
+				sorted[(int) (sorted.length * 0.50)] / 1e6, sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1e6,
+				sorted[sorted.length - 1] / 1e6));
+	}
+	private static void report(String stage, String what, long nanos){
+		System.out.println(String.format("%-9s %10.1f ms  %s", stage, nanos / 1e6, what));
+	}
+	private static void resetPeakHeap(){
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP){
+				pool.resetPeakUsage();
+			}
+		}
+	}
+	private static long peakHeap(){
+		long peak = 0;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP){
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+	/**
+	 * A helper method which gives the bytes this process has written through system
+	 * calls so far (Linux only, from /proc/self/io), or -1 if unknown.
+	 */
+	private static long bytesWritten(){
+		File io = new File("/proc/self/io");
+		if(!(io.canRead())){
+			return -1;
+		}
+		try{
+			for(String line: Files.readAllLines(io.toPath(), StandardCharsets.UTF_8)){
+				if(line.startsWith("wchar:")){
+					return Long.parseLong(line.substring(6).trim());
+				}
+			}
+		}catch(IOException | NumberFormatException e){
+			return -1;
+		}
+		return -1;
+	}
+	/**
+	 * A helper method which reads the command line options.
+	 */
+	private void parse(String[] args){
+		for(int i = 0; i < args.length; i += 2){
+			if(i + 1 >= args.length){
+				throw new IllegalArgumentException("missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			try{
+				switch(args[i]){
+				case "--library": library = new File(value); break;
+				case "--files": files = Integer.parseInt(value); break;
+				case "--depth": depth = Integer.parseInt(value); break;
+				case "--fanout": fanout = Integer.parseInt(value); break;
+				case "--threads": threads = Integer.parseInt(value); break;
+				case "--ops": ops = Integer.parseInt(value); break;
+				case "--tags": tags = Integer.parseInt(value); break;
+				case "--seed": seed = Long.parseLong(value); break;
+				case "--mix": weights = parseMix(value); break;
+				default: throw new IllegalArgumentException("unknown option " + args[i]);
+				}
+			}catch(NumberFormatException e){
+				throw new IllegalArgumentException("not a number: " + value);
+			}
+		}
+		if(files < 1 || threads < 1 || ops < 0 || tags < 1 || depth < 0 || fanout < 1){
+			throw new IllegalArgumentException("files, threads, tags and fanout must be positive");
+		}
+	}
+	private static int[] parseMix(String spec){
+		Map<String, Integer> mix = new LinkedHashMap<>();
+		for(String part: spec.split(",")){
+			String[] pair = part.split("=");
+			if(pair.length != 2 || !(Arrays.asList(OPERATIONS).contains(pair[0].trim()))){
+				throw new IllegalArgumentException("malformed mix " + spec);
+			}
+			mix.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+		}
+		int[] weights = new int[OPERATIONS.length];
+		int sum = 0;
+		for(int i = 0; i < OPERATIONS.length; i++){
+			Integer weight = mix.get(OPERATIONS[i]);
+			weights[i] = weight == null ? 0 : Math.max(0, weight);
+			sum += weights[i];
+		}
+		if(sum == 0){
+			throw new IllegalArgumentException("mix has no operations: " + spec);
+		}
+		return weights;
+	}
+}
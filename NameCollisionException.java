@@ -0,0 +1,16 @@
+package photo_renamer;
+
+public class NameCollisionException extends RenameException{
+
+	/**
+	 * This exception is thrown when an image would be renamed to a name that another
+	 * file in its directory already has. Nothing is renamed when this is thrown.
+	 * 
+	 * serialVersionUID: generated so this class can be serialized.
+	 */
+	private static final long serialVersionUID = -3180563437206154885L;
+	NameCollisionException(String name, String newName){
+		super(name, "a file named " + newName + " already exists in its directory");
+	}
+
+}
@@ -0,0 +1,96 @@
+package photo_renamer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+public class NameIndex{
+
+	/**
+	 * The NameIndex keeps, for every directory, the names of the files in it, so a
+	 * rename can be checked for collisions without asking the file system. It is filled
+	 * by the scanner (CatalogShards) and updated by every rename of an image; a
+	 * directory the scanner has not listed is listed the first time it is asked about.
+	 * Directories are interned DirectoryNodes, so there is one index for the whole
+	 * program.
+	 *
+	 * The directories of a catalog are forgotten when it is closed, and at most
+	 * MAX_DIRECTORIES are kept at any time: the directory used least recently is
+	 * dropped first. A forgotten directory is simply listed again when it is next
+	 * asked about.
+	 *
+	 * MAX_DIRECTORIES: the number of directories whose names are kept
+	 * shared: the index used by all images
+	 * names: the names of the files in every listed directory, least recently used first
+	 */
+	static final int MAX_DIRECTORIES = 10000;
+	private static final NameIndex shared = new NameIndex();
+	private final LinkedHashMap<DirectoryNode, HashSet<String>> names =
+			new LinkedHashMap<DirectoryNode, HashSet<String>>(16, 0.75f, true){
+		private static final long serialVersionUID = 6017480945270117531L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<DirectoryNode, HashSet<String>> eldest){
+			return size() > MAX_DIRECTORIES;
+		}
+	};
+
+	/**
+	 * Gives the index used by all images.
+	 *
+	 * @return the shared NameIndex
+	 */
+	public static NameIndex shared(){
+		return shared;
+	}
+	/**
+	 * Records the names of all files in a directory, replacing what was known before.
+	 *
+	 * @param directory: the directory
+	 * @param fileNames: the names of all files in it
+	 */
+	public synchronized void record(DirectoryNode directory, String[] fileNames){
+		names.put(directory, new HashSet<>(Arrays.asList(fileNames)));
+	}
+	/**
+	 * Tells whether a file with the given name exists in the given directory.
+	 *
+	 * @param directory: the directory
+	 * @param name: the name of the file
+	 * @return true if the name is taken
+	 */
+	public synchronized boolean isOccupied(DirectoryNode directory, String name){
+		return names(directory).contains(name);
+	}
+	/**
+	 * Records that a file in a directory was renamed.
+	 *
+	 * @param directory: the directory
+	 * @param from: the old name of the file
+	 * @param to: the new name of the file
+	 */
+	public synchronized void moved(DirectoryNode directory, String from, String to){
+		HashSet<String> taken = names(directory);
+		taken.remove(from);
+		taken.add(to);
+	}
+	/**
+	 * Forgets the names of a directory, so it is listed again when it is next asked
+	 * about.
+	 *
+	 * @param directory: the directory
+	 */
+	public synchronized void forget(DirectoryNode directory){
+		names.remove(directory);
+	}
+	private HashSet<String> names(DirectoryNode directory){
+		HashSet<String> taken = names.get(directory);
+		if(taken == null){
+			String[] listed = directory.toFile().list();
+			taken = listed == null ? new HashSet<String>() : new HashSet<>(Arrays.asList(listed));
+			names.put(directory, taken);
+		}
+		return taken;
+	}
+}
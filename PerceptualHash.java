@@ -0,0 +1,112 @@
+package photo_renamer;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+public class PerceptualHash{
+
+	/**
+	 * PerceptualHash computes the difference hash (dHash) of a picture: the picture is
+	 * shrunk to a 9x8 grid of grey levels and every bit of the 64 bit hash tells
+	 * whether a cell is darker than the cell to its right. Pictures that look alike
+	 * (the same shot re-exported, resized or slightly recompressed) get hashes that
+	 * differ in only a few bits, so the number of differing bits (the Hamming
+	 * distance) measures how similar two pictures are.
+	 *
+	 * The picture is decoded with source subsampling, so only about SAMPLE pixels
+	 * along its shorter side are ever converted, however big the file is.
+	 *
+	 * SAMPLE: how many pixels along the shorter side are decoded
+	 */
+	static final int SAMPLE = 64;
+
+	private PerceptualHash(){
+	}
+	/**
+	 * Computes the dHash of a picture.
+	 *
+	 * @param file: the picture
+	 * @return the 64 bit hash
+	 * @throws IOException: thrown if the file can not be decoded
+	 */
+	public static long of(File file) throws IOException{
+		BufferedImage picture = decode(file, SAMPLE);
+		int width = picture.getWidth();
+		int height = picture.getHeight();
+		int[] rgb = picture.getRGB(0, 0, width, height, null, 0, width);
+		//the average grey level of each cell of a 9x8 grid
+		double[][] grey = new double[8][9];
+		for(int y = 0; y < 8; y++){
+			int top = y * height / 8;
+			int bottom = Math.max(top + 1, (y + 1) * height / 8);
+			for(int x = 0; x < 9; x++){
+				int left = x * width / 9;
+				int right = Math.max(left + 1, (x + 1) * width / 9);
+				double sum = 0;
+				for(int row = top; row < bottom; row++){
+					for(int column = left; column < right; column++){
+						int pixel = rgb[row * width + column];
+						sum += 0.299 * ((pixel >> 16) & 0xff) + 0.587 * ((pixel >> 8) & 0xff) + 0.114 * (pixel & 0xff);
+					}
+				}
+				grey[y][x] = sum / ((bottom - top) * (right - left));
+			}
+		}
+		long hash = 0;
+		for(int y = 0; y < 8; y++){
+			for(int x = 0; x < 8; x++){
+				hash <<= 1;
+				if(grey[y][x] < grey[y][x + 1]){
+					hash |= 1;
+				}
+			}
+		}
+		return hash;
+	}
+	/**
+	 * Gives the number of bits two hashes differ in.
+	 *
+	 * @param a: a hash
+	 * @param b: another hash
+	 * @return the Hamming distance of the hashes
+	 */
+	public static int distance(long a, long b){
+		return Long.bitCount(a ^ b);
+	}
+	/**
+	 * Decodes the first picture of a file, skipping pixels so that about the given
+	 * number remain along the shorter side (also used for thumbnails).
+	 *
+	 * @param file: the picture
+	 * @param sample: how many pixels along the shorter side to keep at least
+	 * @return the decoded picture
+	 * @throws IOException: thrown if the file can not be decoded
+	 */
+	static BufferedImage decode(File file, int sample) throws IOException{
+		try(ImageInputStream in = ImageIO.createImageInputStream(file)){
+			if(in == null){
+				throw new IOException("can not read " + file);
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if(!(readers.hasNext())){
+				throw new IOException("no decoder for " + file);
+			}
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(in, true, true);
+				int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / sample);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step, step, 0, 0);
+				return reader.read(0, param);
+			}finally{
+				reader.dispose();
+			}
+		}
+	}
+}
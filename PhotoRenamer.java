@@ -1,14 +1,25 @@
 package photo_renamer;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import javax.activation.MimetypesFileTypeMap;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
@@ -21,6 +32,12 @@ public class PhotoRenamer{
 	private File directory;
 	
 	ArrayList<Image> imageList = new ArrayList<>();
+	private int batchDepth = 0;
+	private final HashMap<DirectoryNode, RenameEngine> openDirectories = new HashMap<>();
+	private TagStatistics statistics = new TagStatistics();
+	private CatalogShards shards = new CatalogShards();
+	private StartupTimings timings;
+	private DuplicateFinder duplicates = new DuplicateFinder();
 	private final static Logger logger = Logger.getLogger(PhotoRenamer.class.getName());
 	private final static File logFile = new File(System.getProperty("user.home") + "/Library/PhotoRenamer/logFile.txt");
 	//Set up for MacOS X may need to adjust for different OS
@@ -30,13 +47,30 @@ public class PhotoRenamer{
 	//Set up for MacOS X may need to adjust for different OS
 	private final static File storage = new File(System.getProperty("user.home") + "/Library/PhotoRenamer");
 	//Set up for MacOS X may need to adjust for different OS
+	private final static MimetypesFileTypeMap MIME_TYPES = new MimetypesFileTypeMap();
 	/**
 	 * Reads a given directory and stores all the image files in that directory. This
 	 * class can add, delete, and view, tags of any of the images in the directory. This
-	 * class will interact directly with the GUI
+	 * class will interact directly with the GUI. Its methods are synchronized so it can
+	 * be shared by several threads (e.g. the catalog server or the load generator).
 	 * 
 	 * imageList: stores all images in given directory
 	 * 
+	 * batchDepth: how many batches are open; imageList is only serialized when this is 0
+	 * 
+	 * openDirectories: the directories opened for renaming during the current batch,
+	 * closed when the batch ends
+	 * 
+	 * shards: the catalog of imageList, stored as one ".images.ser" per directory
+	 * 
+	 * statistics: tag counts and co-occurrences of the images in imageList, kept up to
+	 * date on every change of tags
+	 * 
+	 * timings: how long each stage of opening the directory took
+	 * 
+	 * duplicates: the perceptual hashes of the images, indexed the first time similar
+	 * images are looked for
+	 * 
 	 * logger: logs all renaming (adding, delecting and reverting) PhotoRename does
 	 * 
 	 * logFile: A text file which the filehandler writes to.
@@ -49,25 +83,45 @@ public class PhotoRenamer{
 	 * tagSetFile: the file where the tag set is serialized (so it persists) 
 	 * 
 	 * storage: the directory where all files used by the PhotoRenamer is stored. 
+	 * 
+	 * MIME_TYPES: tells the type of a file from its name; it reads the mime.types files
+	 * when it is created, so one is shared by all checks
 	 */
 	
 	/** 
-	 * Instantiates the PhotoRenamer class, stores all images in the directory into imageList
-	 * checks if a file named ".images.ser" exist in the given directory if the file does
-	 * not exist it is created if it does exist the constructor reads the file and stores
-	 * the ArrayList contained in that file as imageList. ".images.ser" stores serialized 
-	 * ArrayLists of images.
+	 * Instantiates the PhotoRenamer class, stores all images in the directory into imageList.
+	 * Every directory with images has a file named ".images.ser" holding a serialized
+	 * ArrayList of the images directly inside it (see CatalogShards); the files of the
+	 * given directory and all its subdirectories are read, and images that are not in
+	 * them yet are added. Directories that did not change since the last time the
+	 * directory was opened are not listed again (see ScanIndex).
 	 * 
 	 * @param directory
 	 */
 	public PhotoRenamer(File directory){
+		this(directory, null, new StartupTimings());
+	}
+	/**
+	 * Instantiates the PhotoRenamer class in overlapping stages: the tag set is read
+	 * while the shards are loaded and the directory tree is scanned (which also run at
+	 * the same time, see CatalogShards), and the images of every shard are handed out
+	 * as soon as it is read so they can be shown before the scan is done. Every stage
+	 * is recorded in the given timings.
+	 * 
+	 * @param directory: the directory to open
+	 * @param images: receives the images as they are found, from any thread, or null
+	 * @param timings: records how long each stage takes
+	 */
+	PhotoRenamer(File directory, Consumer<List<Image>> images, StartupTimings timings){
+		this.timings = timings;
+		timings.begin("logging");
 		//check if file exits (i.e. checks if this is the first time this program is being
 		//used) if this is the first time the program creates a directory to store
 		//it's files
 		if(!(storage.exists())){
 			storage.mkdir();
 		}
-		this.directory = directory;
+		this.directory = directory.getAbsoluteFile();
 		//checks if a log file exits to record all activities done by the photorenamer
 		//if it deons't exist it is created
 		if(!(logFile.exists())){
@@ -78,49 +132,42 @@ public class PhotoRenamer{
 				e.printStackTrace();
 			}
 		}
-		//sets up the logging system
-		try {
-			filehandler = new FileHandler(logFile.getPath(), true);
-			logger.setLevel(Level.ALL);
-			filehandler.setLevel(Level.ALL);
-			logger.addHandler(filehandler);
-		} catch (SecurityException | IOException e1) {
-			System.out.println("could not create file handler");
-			e1.printStackTrace();
-		}
-		//sets up the serializable file if this program is being run for the first time
-		if(!(Arrays.asList(directory.listFiles()).contains(new File(directory.getPath() + "/" + ".images.ser")))){;
-			File serFile = new File(directory.getPath() + "/" + ".images.ser");
-			try {
-				serFile.createNewFile();
-				checkDirectory(directory, null);
-				serializeImageList();
-			}
-			catch (IOException e) {
-			    System.out.println("Serializable file could not be created");
-				e.printStackTrace();
-			}
-		//if this program is not being ran for the first gets tag created in previous 
-		//session
-		}else {
-			deSerializeImageList();
-			ArrayList<File> imageFiles = new ArrayList<>();
-			for (Image images: this.imageList){
-				imageFiles.add(images.getImage());
+		//sets up the logging system once; every PhotoRenamer of the process logs
+		//through the same handler, so no line is written twice
+		synchronized(PhotoRenamer.class){
+			if(filehandler == null){
+				try {
+					filehandler = new FileHandler(logFile.getPath(), true);
+					logger.setLevel(Level.ALL);
+					filehandler.setLevel(Level.ALL);
+					logger.addHandler(filehandler);
+				} catch (SecurityException | IOException e1) {
+					filehandler = null;
+					System.out.println("could not create file handler");
+					e1.printStackTrace();
+				}
 			}
-			checkDirectory(directory, imageFiles);
 		}
-		if(!(tagSetFile.exists())){ 
-			try {
-				tagSetFile.createNewFile();
-				serializeTagSet();
-			}catch (IOException e){
-				System.out.println("Serializable file could not be created");
-				e.printStackTrace();
-			}
-		}else {
-			deSerializeTagSet();
+		timings.end("logging");
+		//the tag set is read while the catalog is loaded
+		CompletableFuture<Void> tagSetLoad = CompletableFuture.runAsync(() -> {
+			timings.begin("tag set");
+			loadTagSet();
+			timings.end("tag set");
+		});
+		//loads the shards of the directory and its subdirectories and adds any image
+		//that is not in them yet; shards of new or migrated images are written at once
+		this.imageList = new ArrayList<>(shards.open(directory, this::imageChecker, images, timings));
+		timings.begin("save");
+		shards.save();
+		timings.end("save");
+		timings.begin("statistics");
+		for(Image image: this.imageList){
+			statistics.update(image, new String[0], image.getCurrTags());
 		}
+		timings.end("statistics");
+		tagSetLoad.join();
+		logger.log(Level.FINE, String.format("opened %s%n%s", this.directory, timings.report()));
 	}
 	/**
 	 * Adds the given tag to the given image in the directory and adds the tag 
@@ -129,15 +176,24 @@ public class PhotoRenamer{
 	 * @param imageName: the image to add the tag to.
 	 * @param tagName: the tag to add to the image.
 	 * @throws ImageNotFoundException: thrown if the image does not exist in the directory.
+	 * @throws RenameException: thrown if the file could not be renamed; the image keeps its tags.
 	 */
-	public void addTag(Image imageName, String tagName) throws ImageNotFoundException{
+	public synchronized void addTag(Image imageName, String tagName) throws ImageNotFoundException, RenameException{
 		//check if image is in directory if so change the name if not throw a exception
 		if(imageList.contains(imageName)){
 			if(!(tagSet.contains(tagName))){
 				PhotoRenamer.addToSet(tagName);
 				}
-			imageName.addTag(tagName);
-			serializeImageList();
+			String[] before = imageName.getCurrTags();
+			try {
+				imageName.addTag(tagName, openDirectory(imageName));
+			}catch (RenameException e) {
+				logger.log(Level.SEVERE, "could not rename image to add a tag", e);
+				throw e;
+			}
+			statistics.update(imageName, before, imageName.getCurrTags());
+			shards.changed(imageName);
+			saveImageList();
 			//log as fine if the tag was successfully added
 			logger.log(Level.FINE, String.format("Tag %s added to image %s", tagName, imageName));
 		}else {
@@ -152,8 +208,9 @@ public class PhotoRenamer{
 	 * @param imageName: the image to add the tags to
 	 * @param tagName: the tags which to add
 	 * @throws ImageNotFoundException: thrown if the image is not in the directory
+	 * @throws RenameException: thrown if the file could not be renamed
 	 */
-	public void addMultipleTags(Image imageName, String ... tagName) throws ImageNotFoundException{
+	public synchronized void addMultipleTags(Image imageName, String ... tagName) throws ImageNotFoundException, RenameException{
 		//goes throw the tags given and adds them one by one using the addTag method
 		//if the image is not in the directory an exception is thrown
 		for (int i=0; i < tagName.length; i++){
@@ -167,12 +224,16 @@ public class PhotoRenamer{
 	 * @param tagName: The tag that should be deleted from the image.
 	 * @throws ImageNotFoundException: Thrown if the image does not exist in the directory
 	 * @throws TagNotFoundException: Thrown if the Tag does not exist in the image.
+	 * @throws RenameException: Thrown if the file could not be renamed; the image keeps its tags.
 	 */
-	public void deleteTag(Image imageName, String tagName) throws ImageNotFoundException, TagNotFoundException{
+	public synchronized void deleteTag(Image imageName, String tagName) throws ImageNotFoundException, TagNotFoundException, RenameException{
 		//checks if image is in directory
 		if(imageList.contains(imageName)){
 			try {
-				imageName.deleteTag(tagName);
+				String[] before = imageName.getCurrTags();
+				imageName.deleteTag(tagName, openDirectory(imageName));
+				statistics.update(imageName, before, imageName.getCurrTags());
+				shards.changed(imageName);
 				logger.log(Level.FINE, String.format("deleted tag %s from image %s", tagName, imageName));
 				//if tag is deleted successfully it is logged as fine
 			} catch (TagNotFoundException e) {
@@ -180,8 +241,11 @@ public class PhotoRenamer{
 				//so an exception is thrown and logged as severe 
 				logger.log(Level.SEVERE, "Tag does not exist for image", e);
 				throw e;
+			} catch (RenameException e) {
+				logger.log(Level.SEVERE, "could not rename image to delete a tag", e);
+				throw e;
 			}
-			serializeImageList();
+			saveImageList();
 		}else {
 			//exception is thrown if image is not in directory
 			//and logged as severe
@@ -196,8 +260,9 @@ public class PhotoRenamer{
 	 * @param tagName: tags to delete
 	 * @throws ImageNotFoundException: thrown if image is not in directory
 	 * @throws TagNotFoundException: thrown if the image doesn't contain a given tag
+	 * @throws RenameException: thrown if the file could not be renamed
 	 */
-	public void deleteMultipleTags(Image imageName, String ... tagName) throws ImageNotFoundException, TagNotFoundException{
+	public synchronized void deleteMultipleTags(Image imageName, String ... tagName) throws ImageNotFoundException, TagNotFoundException, RenameException{
 		for (int i=0; i < tagName.length; i++){
 			this.deleteTag(imageName, tagName[i]);
 		}
@@ -207,7 +272,7 @@ public class PhotoRenamer{
 	 * 
 	 * @return: an array of all images in the directory.
 	 */
-	public Image[] getImages(){
+	public synchronized Image[] getImages(){
 		return this.imageList.toArray(new Image[imageList.size()]);
 	}
 	/**
@@ -218,7 +283,7 @@ public class PhotoRenamer{
 	 * a given image.
 	 * @throws ImageNotFoundException: thrown if the image does not exist in the directory.
 	 */
-	public String viewImageLog(Image imageName) throws ImageNotFoundException{
+	public synchronized String viewImageLog(Image imageName) throws ImageNotFoundException{
 		//checks if image is in directory
 		if(imageList.contains(imageName)){
 			return imageName.nameLog();
@@ -233,7 +298,7 @@ public class PhotoRenamer{
 	 * @return an array strings containing all past names.
 	 * @throws ImageNotFoundException: thrown if the image is not in the directory.
 	 */
-	public String[] viewImageNames(Image imageName) throws ImageNotFoundException{
+	public synchronized String[] viewImageNames(Image imageName) throws ImageNotFoundException{
 		//checks if image is in directory
 		if(imageList.contains(imageName)){
 			return imageName.allNames();
@@ -249,60 +314,350 @@ public class PhotoRenamer{
 	 * @param name: the name which to revert to.
 	 * @throws TagNotFoundException: Thrown if the image never had the given name
 	 * @throws ImageNotFoundException: Thrown if the image is not in the directory.
+	 * @throws RenameException: Thrown if the file could not be renamed; the image keeps its name.
 	 */
-	public void olderName(Image imageName, String name) throws ImageNotFoundException, TagNotFoundException{
+	public synchronized void olderName(Image imageName, String name) throws ImageNotFoundException, TagNotFoundException, RenameException{
 		//check if image is in directory
 		if(imageList.contains(imageName)){
 			//removes the image from imageList (which keeps track of images in directory
 			//then change the name and put the image (now with it's name changed) back
 			//into the list
 			imageList.remove(imageName);
+			String[] before = imageName.getCurrTags();
 			try {
-				imageName.revertOlderName(name);
+				imageName.revertOlderName(name, openDirectory(imageName));
+				statistics.update(imageName, before, imageName.getCurrTags());
+				shards.changed(imageName);
 			}catch (TagNotFoundException e) {
 				logger.log(Level.SEVERE, "tried to change to older name with a Tag that does not exist", e);
 				throw e;
+			}catch (RenameException e) {
+				logger.log(Level.SEVERE, "could not rename image to an older name", e);
+				throw e;
+			}finally{
+				imageList.add(imageName);
 			}
-			imageList.add(imageName);
 			logger.log(Level.FINE, String.format("changed image %s to older name %s", imageName, name));
-			serializeImageList();
+			saveImageList();
 		}else{
 			logger.log(Level.SEVERE, "tired to change to name of an image not in directory", new ImageNotFoundException());
 			throw new ImageNotFoundException();
 		}
 	}
 	/**
-	 * A helper method which serializes (writes to file) the list of images
-	 * 
+	 * Writes the whole catalog (path, current tags and name history of every image)
+	 * to the given file. The file is written as CSV if its name ends in ".csv" and as
+	 * line-delimited JSON otherwise. No image is renamed while the catalog is written.
+	 *
+	 * @param out: the file to export the catalog to
+	 * @throws IOException: thrown if the file could not be written
 	 */
-	private void serializeImageList(){
-		try {
-			FileOutputStream fout = new FileOutputStream(this.directory.getPath() + "/" + ".images.ser");
-			ObjectOutputStream oout = new ObjectOutputStream(fout);
-			oout.writeObject(this.imageList);
-			fout.close();
-			oout.close();
-		}catch (IOException e){
-			System.out.println("serialization failed");
-			e.printStackTrace();
+	public synchronized void exportCatalog(File out) throws IOException{
+		new CatalogTransfer(this).exportTo(out);
+	}
+	/**
+	 * Reads a catalog written by exportCatalog and applies its tags and name
+	 * histories to the matching images in the directory. Renames are applied in
+	 * batches and the list of images is only serialized once at the end. No other
+	 * change is made to the images while the catalog is imported.
+	 *
+	 * @param in: the file to import the catalog from
+	 * @return the number of images in the directory that were matched
+	 * @throws IOException: thrown if the file could not be read or is malformed
+	 */
+	public synchronized int importCatalog(File in) throws IOException{
+		return new CatalogTransfer(this).importFrom(in);
+	}
+	/**
+	 * Tags every image in the directory from its metadata (year taken, camera and
+	 * orientation), see AutoTagger. All renames are done as one batch.
+	 *
+	 * @return the number of images that got at least one new tag
+	 */
+	public int autoTag(){
+		return new AutoTagger(this).tag(getImages());
+	}
+	/**
+	 * Gives the images in the directory whose pictures look like the picture of the
+	 * given image (see DuplicateFinder), most similar first. The pictures of all images
+	 * are hashed the first time this is asked.
+	 *
+	 * @param image: the image to find similar images for
+	 * @param maxDistance: how many of the 64 bits of the hashes may differ
+	 * @return the similar images
+	 * @throws ImageNotFoundException: thrown if the image is not in the directory
+	 */
+	public synchronized List<Image> findSimilar(Image image, int maxDistance) throws ImageNotFoundException{
+		if(!(imageListContains(image))){
+			throw new ImageNotFoundException();
 		}
+		duplicates.index(getImages());
+		return duplicates.similar(image, maxDistance);
 	}
 	/**
-	 * A helper method which deserealizes (reads form file) the list of images
-	 * 
+	 * Gives every image the tags of the images whose pictures look like its picture,
+	 * so duplicates end up with the same tags. All renames are done as one batch, and
+	 * no other change is made to the images between finding the duplicates and
+	 * retagging them.
+	 *
+	 * @param maxDistance: how many of the 64 bits of the hashes may differ
+	 * @return the number of images that got at least one new tag
+	 */
+	public synchronized int propagateTagsToDuplicates(int maxDistance){
+		duplicates.index(getImages());
+		Map<Image, String[]> targets = duplicates.propagatedTags(maxDistance);
+		if(targets.isEmpty()){
+			return 0;
+		}
+		return targets.size() - applyTags(targets).size();
+	}
+	/**
+	 * Renames a tag on every image in the directory that carries it (and in the tag
+	 * set). Only the images carrying the tag are renamed, see TagRefactoring.
+	 *
+	 * @param from: the tag to rename
+	 * @param to: its new name
+	 * @return the number of images that were retagged
+	 * @throws TagNotFoundException: thrown if no image carries the tag and it is not in the tag set
+	 */
+	public int renameTag(String from, String to) throws TagNotFoundException{
+		return mergeTags(to, from);
+	}
+	/**
+	 * Merges several tags into one on every image in the directory carrying any of
+	 * them, see TagRefactoring.
+	 *
+	 * @param to: the tag the images end up with
+	 * @param from: the tags to merge into it
+	 * @return the number of images that were retagged
+	 * @throws TagNotFoundException: thrown if no image carries one of the tags and it is
+	 * not in the tag set
+	 */
+	public int mergeTags(String to, String... from) throws TagNotFoundException{
+		return mergeTags(to, Arrays.asList(from), () -> false);
+	}
+	/**
+	 * Merges several tags into one, stopping between batches when asked to. A stopped
+	 * merge is finished by resumeTagRefactoring.
+	 *
+	 * @param to: the tag the images end up with
+	 * @param from: the tags to merge into it
+	 * @param stop: tells the merge to stop after the current batch
+	 * @return the number of images that were retagged
+	 * @throws TagNotFoundException: thrown if no image carries one of the tags and it is
+	 * not in the tag set
+	 */
+	synchronized int mergeTags(String to, List<String> from, BooleanSupplier stop) throws TagNotFoundException{
+		for(String tag: from){
+			if(statistics.count(tag) == 0 && !(tagSet.contains(tag))){
+				logger.log(Level.SEVERE, "tried to rename a tag that does not exist", new TagNotFoundException());
+				throw new TagNotFoundException();
+			}
+		}
+		int retagged = new TagRefactoring(this).run(to, from, stop);
+		logger.log(Level.FINE, String.format("merged tags %s into %s on %d images", from, to, retagged));
+		return retagged;
+	}
+	/**
+	 * Gives the tag rename or merge that was interrupted, if any.
+	 *
+	 * @return the new tag followed by the old tags, or null if nothing is unfinished
+	 */
+	public List<String> pendingTagRefactoring(){
+		return new TagRefactoring(this).pending();
+	}
+	/**
+	 * Finishes a tag rename or merge that was interrupted.
+	 *
+	 * @param stop: tells the merge to stop after the current batch
+	 * @return the number of images that were retagged, or -1 if nothing was unfinished
+	 */
+	synchronized int resumeTagRefactoring(BooleanSupplier stop){
+		return new TagRefactoring(this).resume(stop);
+	}
+	/**
+	 * Gives the tag counts and co-occurrences of the images in the directory.
+	 *
+	 * @return the tag statistics of the directory
+	 */
+	public TagStatistics getTagStatistics(){
+		return statistics;
+	}
+	/**
+	 * Sets the tags of an image whose file name already carries them, without
+	 * renaming the file (see Image.restoreTags).
+	 *
+	 * @param image: the image
+	 * @param tags: the tags the name of the image already contains
+	 */
+	synchronized void restoreTags(Image image, String[] tags){
+		String[] before = image.getCurrTags();
+		image.restoreTags(tags);
+		statistics.update(image, before, tags);
+		shards.changed(image);
+	}
+	/**
+	 * Gives how long each stage of opening the directory took.
+	 *
+	 * @return the startup timings of this PhotoRenamer
+	 */
+	public StartupTimings getStartupTimings(){
+		return timings;
+	}
+	/**
+	 * A helper method which checks if an image is in the directory.
+	 */
+	private synchronized boolean imageListContains(Image image){
+		return imageList.contains(image);
+	}
+	/**
+	 * Gives the directory this PhotoRenamer was opened on.
+	 *
+	 * @return the directory this PhotoRenamer was opened on.
+	 */
+	File getDirectory(){
+		return this.directory;
+	}
+	/**
+	 * Closes the catalog once it is no longer used: the names of its directories are
+	 * dropped from the NameIndex. Every change is already saved.
+	 */
+	synchronized void close(){
+		shards.close();
+	}
+	/**
+	 * Starts a batch; until the matching endBatch the list of images is not
+	 * serialized after every change, and every directory an image is renamed in is
+	 * opened once and kept open (see RenameEngine). Batches may be nested.
+	 */
+	synchronized void beginBatch(){
+		batchDepth++;
+	}
+	/**
+	 * Ends a batch started with beginBatch and serializes the list of images once
+	 * the outermost batch is closed.
+	 */
+	synchronized void endBatch(){
+		batchDepth--;
+		if(batchDepth == 0){
+			for(RenameEngine engine: openDirectories.values()){
+				engine.close();
+			}
+			openDirectories.clear();
+			shards.save();
+		}
+	}
+	/**
+	 * Changes the tags of several images at once so that each image ends up with
+	 * exactly the tags it is mapped to. The whole batch is checked for name
+	 * collisions first (see RenamePlan) and images that would collide are left as
+	 * they are; new tags are added to the tag set, then every other image is renamed
+	 * once. Within each round of the plan the directories are renamed in parallel, each
+	 * through the RenameEngine opened for it by the first round that renames in it and
+	 * kept open until the batch ends. The list of images is serialized once after all
+	 * renames are done.
+	 *
+	 * @param targets: the images to retag and the tags each of them should end up with
+	 * @return a description of every image that was not retagged and why
+	 */
+	synchronized List<String> applyTags(Map<Image, String[]> targets){
+		RenamePlan plan = new RenamePlan();
+		for(Map.Entry<Image, String[]> entry: targets.entrySet()){
+			plan.add(entry.getKey(), entry.getValue());
+		}
+		List<String> conflicts = plan.validate(NameIndex.shared());
+		for(String conflict: conflicts){
+			logger.log(Level.SEVERE, "image not retagged: " + conflict);
+		}
+		List<List<RenamePlan.Move>> rounds = plan.rounds();
+		for(List<RenamePlan.Move> round: rounds){
+			for(RenamePlan.Move move: round){
+				for(String tag: move.tags){
+					if(!(tagSet.contains(tag))){
+						PhotoRenamer.addToSet(tag);
+					}
+				}
+			}
+		}
+		List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+		beginBatch();
+		try{
+			for(List<RenamePlan.Move> round: rounds){
+				//every directory is opened once for the whole batch (here, as the open
+				//directories are not shared between threads) and closed by endBatch
+				Map<RenameEngine, List<RenamePlan.Move>> byEngine = new LinkedHashMap<>();
+				for(List<RenamePlan.Move> moves: RenamePlan.byDirectory(round).values()){
+					try{
+						byEngine.put(openDirectory(moves.get(0).image), moves);
+					}catch(RenameException e){
+						logger.log(Level.SEVERE, "could not open directory", e);
+						for(RenamePlan.Move move: moves){
+							failed.add(String.format("%s -> %s: %s", move.from, move.to, e.getMessage()));
+						}
+					}
+				}
+				//directories are renamed in parallel, each through its open handle
+				byEngine.entrySet().parallelStream().forEach(directory -> {
+					for(RenamePlan.Move move: directory.getValue()){
+						retag(move, directory.getKey(), failed);
+					}
+				});
+			}
+		}finally{
+			endBatch();
+		}
+		conflicts.addAll(failed);
+		return conflicts;
+	}
+	/**
+	 * A helper method which does one rename of applyTags; a failed rename is logged
+	 * and added to failed.
 	 */
-	@SuppressWarnings("unchecked") //will always deSerialze an ArrayList of images
-	private void deSerializeImageList(){
+	private void retag(RenamePlan.Move move, RenameEngine directory, List<String> failed){
+		String[] before = move.image.getCurrTags();
 		try {
-			FileInputStream fout = new FileInputStream(this.directory.getPath() + "/" + ".images.ser");
-			ObjectInputStream oin = new ObjectInputStream(fout);
-			this.imageList = (ArrayList<Image>) oin.readObject();
-			fout.close();
-			oin.close();
-			
-		}catch (IOException | ClassNotFoundException e){
-			System.out.println("could not deserialize");
-			e.printStackTrace();
+			move.image.retag(move.tags, directory);
+			logger.log(Level.FINE, String.format("retagged image %s as %s", move.from, move.image));
+		} catch (RenameException e) {
+			logger.log(Level.SEVERE, "could not rename image", e);
+			failed.add(String.format("%s -> %s: %s", move.from, move.to, e.getMessage()));
+			return;
+		}
+		statistics.update(move.image, before, move.image.getCurrTags());
+		shards.changed(move.image);
+	}
+	/**
+	 * A helper method which gives the open directory of an image during a batch,
+	 * opening it the first time; outside a batch an image is renamed on its own.
+	 */
+	private RenameEngine openDirectory(Image image) throws RenameException{
+		if(batchDepth == 0){
+			return null;
+		}
+		RenameEngine engine = openDirectories.get(image.getParent());
+		if(engine == null){
+			engine = new RenameEngine(image.getParent());
+			openDirectories.put(image.getParent(), engine);
+		}
+		return engine;
+	}
+	/**
+	 * A helper method which writes the changed shards of the catalog unless a batch
+	 * is in progress (in which case they are written when the batch ends).
+	 */
+	private void saveImageList(){
+		if(batchDepth == 0){
+			shards.save();
+		}
+	}
+	/**
+	 * Closes the log file; the next PhotoRenamer that is created opens it again.
+	 */
+	static synchronized void closeLog(){
+		if(filehandler != null){
+			logger.removeHandler(filehandler);
+			filehandler.close();
+			filehandler = null;
 		}
 	}
 	/**
@@ -320,6 +675,22 @@ public class PhotoRenamer{
 			e.printStackTrace();
 		}
 	}
+	/**
+	 * a helper method which reads the tag set, or creates its file if there is none
+	 */
+	private static synchronized void loadTagSet(){
+		if(!(tagSetFile.exists())){ 
+			try {
+				tagSetFile.createNewFile();
+				serializeTagSet();
+			}catch (IOException e){
+				System.out.println("Serializable file could not be created");
+				e.printStackTrace();
+			}
+		}else {
+			deSerializeTagSet();
+		}
+	}
 	@SuppressWarnings("unchecked") //will always deserialize an ArrayList of strings
 	private static void deSerializeTagSet(){
 		try {
@@ -340,39 +711,10 @@ public class PhotoRenamer{
 	 * @return true if the file is an image false otherwise
 	 */
 	private boolean imageChecker(File image){
-		String type = new  MimetypesFileTypeMap().getContentType(image);
+		String type = MIME_TYPES.getContentType(image);
 		String imagetype = type.substring(0, type.lastIndexOf("/"));
 		return imagetype.equals("image");
 	}
-	/**
-	 * A helper method which checks weather the given file is a directory; 
-	 * if it is not a directory this method adds the file to the image list if 
-	 * the file is an image; if it is a directory then this method recursively call 
-	 * itself on the file.
-	 * 
-	 * @param directory: A file which if it is a directory to add all 
-	 * image files in the file into the image list; and if it is not a directory
-	 * it adds the file to the fileList if the file is an image
-	 */
-	private void checkDirectory(File directory, ArrayList<File> imageFiles){
-		for (File f: directory.listFiles()){
-			if(imageFiles == null){
-				if (imageChecker(f)){
-					this.imageList.add(new Image(f.getName(), f, new TagLog()));
-				}
-				else if (f.isDirectory()){
-					checkDirectory(f, null);
-				}
-			}else {
-				if (imageChecker(f) && !(imageFiles.contains(f))){
-					this.imageList.add(new Image(f.getName(), f, new TagLog()));
-				}
-				else if (f.isDirectory()){
-					checkDirectory(f, imageFiles);
-			}
-     	 }
-	  }
-	}
 	/**
 	 * Reads the log.txt file that the logger logged to and returns a string 
 	 * representation of all renaming ever done to all images by the PhotoRenamer.
@@ -380,30 +722,39 @@ public class PhotoRenamer{
 	 * @return a String representation of all renaming ever done to all images.
 	 */
 	public static String getAllHistory(){
-		String s = "";
-		try {
-			Scanner scanner = new Scanner(new FileInputStream(logFile.getPath()));
-			while(scanner.hasNextLine()){
-				if(scanner.nextLine().contains("<thread>") || scanner.nextLine().contains("<record>")){
-					s += scanner.nextLine();
-					s += "\n";
+		StringBuilder s = new StringBuilder();
+		readAllHistory(line -> s.append(line).append("\n"));
+		return s.toString();
+	}
+	/**
+	 * Reads the log file line by line and gives every logged renaming to the given
+	 * consumer as soon as it is read, so a caller can show the history while the
+	 * rest of the (possibly very long) log is still being read.
+	 * 
+	 * @param lines: receives each logged message, in the order they were logged
+	 */
+	public static void readAllHistory(Consumer<String> lines){
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8))){
+			String line;
+			while((line = reader.readLine()) != null){
+				if(line.contains("<message>")){
+					lines.accept(line.trim());
 				}
 			}
-			scanner.close();
-			return s;
 		} catch (FileNotFoundException e) {
 			System.out.println("log file does not exist");
 			e.printStackTrace();
-			return s;
+		} catch (IOException e) {
+			System.out.println("could not read log file");
+			e.printStackTrace();
 		}
-		
 	}
 	/**
 	 * adds a tag into the tag set only (this does not rename an image).
 	 * 
 	 * @param tag: the tag that is to be added to the tag set
 	 */
-	public static void addToSet(String tag){
+	public static synchronized void addToSet(String tag){
 		tagSet.add(tag);
 		serializeTagSet();
 	}
@@ -414,7 +765,7 @@ public class PhotoRenamer{
 	 * @param tag: the tag to be deleted from the set
 	 * @throws TagNotFoundException: thrown if the given tag is not in the set
 	 */
-	public static void deleteFromSet(String tag) throws TagNotFoundException{
+	public static synchronized void deleteFromSet(String tag) throws TagNotFoundException{
 		if(tagSet.contains(tag)){
 			tagSet.remove(tag);
 			serializeTagSet();
@@ -442,7 +793,68 @@ public class PhotoRenamer{
 	public static String[] getTagSet(){
 		return tagSet.toArray(new String[tagSet.size()]);
 	}
+	/**
+	 * Starts the GUI when run without arguments. Otherwise:
+	 *
+	 *   --serve DIRECTORY [PORT]           keep the catalog of DIRECTORY in memory and
+	 *                                      serve it on localhost (see CatalogServer)
+	 *   --client DIRECTORY COMMAND [ARGS]  send COMMAND to the server of DIRECTORY, one of
+	 *                                      images, tags, query TAG, history IMAGE, names IMAGE,
+	 *                                      tag IMAGE TAG, untag IMAGE TAG, revert IMAGE NAME,
+	 *                                      batch (operations read from standard input) or
+	 *                                      shutdown
+	 *
+	 * @param args: the command line arguments
+	 */
 	public static void main(String[] args){
-		PhotoRenamerGUI.run();
+		if(args.length == 0){
+			PhotoRenamerGUI.run();
+			return;
+		}
+		try{
+			if(args[0].equals("--serve") && args.length >= 2){
+				CatalogServer server = new CatalogServer(new File(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 0);
+				server.start();
+				System.out.println("serving " + args[1] + " on port " + server.getPort());
+				server.awaitShutdown();
+			}else if(args[0].equals("--client") && args.length >= 3){
+				System.out.print(runClientCommand(CatalogClient.forLibrary(new File(args[1])), Arrays.copyOfRange(args, 2, args.length)));
+			}else{
+				System.out.println("usage: PhotoRenamer [--serve DIRECTORY [PORT] | --client DIRECTORY COMMAND [ARGS]]");
+				System.exit(2);
+			}
+		}catch(IOException | IllegalArgumentException e){
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * A helper method which runs one command line client command.
+	 *
+	 * @return the reply of the server
+	 */
+	private static String runClientCommand(CatalogClient client, String[] command) throws IOException{
+		switch(command[0] + "/" + (command.length - 1)){
+		case "images/0": return client.images();
+		case "tags/0": return client.tags();
+		case "query/1": return client.query(command[1]);
+		case "history/1": return client.history(command[1]);
+		case "names/1": return client.names(command[1]);
+		case "tag/2": client.tag(command[1], command[2]); return "ok\n";
+		case "untag/2": client.untag(command[1], command[2]); return "ok\n";
+		case "revert/2": client.revert(command[1], command[2]); return "ok\n";
+		case "shutdown/0": client.shutdown(); return "ok\n";
+		case "batch/0":
+			ArrayList<String> operations = new ArrayList<>();
+			Scanner in = new Scanner(System.in, "UTF-8");
+			while(in.hasNextLine()){
+				operations.add(in.nextLine());
+			}
+			return client.batch(operations);
+		default:
+			throw new IllegalArgumentException("unknown command " + String.join(" ", command));
+		}
 	}
 }
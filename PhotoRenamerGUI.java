@@ -11,6 +11,13 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class PhotoRenamerGUI extends JFrame{
 
@@ -22,11 +29,21 @@ public class PhotoRenamerGUI extends JFrame{
 	 * 
 	 * JFileChooser: used to let the user choose a directory
 	 * 
-	 * images: stores buffered images of all images in chosen directory
-	 * 
 	 * imageLabel: used to display the picture selected in the GUI
 	 * 
-	 * icon: used to display the picture selected in the GUI
+	 * model: the images in the list, filled in while the directory is opened
+	 * 
+	 * views: the images as a list of names and as a grid of thumbnails; both show
+	 * the same model and share one selection
+	 * 
+	 * displayed: the image whose picture is being decoded or shown
+	 * 
+	 * timings: how long each stage of opening the directory took, up to the first
+	 * paint of the window and the first images in the list
+	 * 
+	 * tasks: runs all calls to the back-end in the background
+	 * 
+	 * BATCH_SIZE: how many images are changed between two checks for cancellation
 	 * 
 	 * all other variables are JButtons which lets the user access the features of the 
 	 * program.
@@ -44,10 +61,21 @@ public class PhotoRenamerGUI extends JFrame{
 	private JButton viewTagSet = new JButton("view Tag Set");
 	private JButton viewImageHistory = new JButton("view all historical names of image");
 	private JButton viewAllHistory = new JButton("view all changes made to all images");
-	private BufferedImage[] images;
-	private JLabel imageLabel;
-	private ImageIcon icon;
+	private JButton exportCatalog = new JButton("Export Catalog");
+	private JButton importCatalog = new JButton("Import Catalog");
+	private JButton autoTag = new JButton("Auto-Tag Images from Metadata");
+	private JButton tagStatistics = new JButton("view Tag Statistics");
+	private JButton findSimilar = new JButton("Find Images Similar to Selected");
+	private JButton propagateTags = new JButton("Share Tags Between Duplicates");
+	private JButton refactorTags = new JButton("Rename or Merge Tags in All Images");
+	private JLabel imageLabel = new JLabel(null, null, JLabel.CENTER);
+	private DefaultListModel<Image> model = new DefaultListModel<>();
+	private JTabbedPane views = new JTabbedPane();
+	private Image displayed;
+	private StartupTimings timings;
 	private int width;
+	private TaskRunner tasks;
+	private static final int BATCH_SIZE = 200;
 	private static PhotoRenamerGUI gui = new PhotoRenamerGUI();
 	
 	//Singleton Design Pattern (Design Pattern 2: DP2) private constructor so this 
@@ -60,31 +88,27 @@ public class PhotoRenamerGUI extends JFrame{
 		int rval = directoryChooser.showOpenDialog(this);
 		//checks if user has chosen a directory
 		if(JFileChooser.APPROVE_OPTION == rval){
-			renamer = new PhotoRenamer(directoryChooser.getSelectedFile());
-			
-			if(renamer.getImages().length > 0){
-				//sets up an image to be displayed in the gui (if the directory has images)
-				//by default the first image image in the outer most directory is shown
-				ArrayList<BufferedImage> images2 = new ArrayList<>();
-				for(Image i: renamer.getImages()){
-					try {
-						images2.add(ImageIO.read(i.getImage()));
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
-				images = images2.toArray(new BufferedImage[images2.size()]);
-				icon = new ImageIcon(images[0].getScaledInstance(250, 200, BufferedImage.SCALE_SMOOTH));
-				imageLabel = new JLabel(null, icon, JLabel.CENTER);
-				panel.add(imageLabel);
-				
+			//a library served by a catalog server must only be changed through the
+			//server, otherwise the two catalogs overwrite each other, so the window
+			//becomes a client of the server (a port file left by a dead server is removed)
+			CatalogClient client = CatalogClient.running(directoryChooser.getSelectedFile());
+			if(client != null){
+				new CatalogClientGUI(client, directoryChooser.getSelectedFile());
+				return;
 			}
-			
-			JList<Image> pictures = new JList<>(renamer.getImages());
-			pictures.addListSelectionListener(new ImageDisplay(imageLabel, pictures, images, icon));
-			pictures.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+			timings = new StartupTimings();
+			//the window is shown at once and the images are added to the list as the
+			//directory is opened; pictures are only decoded when they are selected
+			imageLabel.setPreferredSize(new Dimension(250, 200));
+			panel.add(imageLabel);
+			JList<Image> pictures = new JList<>(model);
+			pictures.addListSelectionListener(new ImageDisplay(pictures));
+			pictures.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+			tasks = new TaskRunner(addTag, selectTags, removeTag, revertName, addToSet, removeTagSet,
+					viewImageHistory, exportCatalog, importCatalog, autoTag,
+					findSimilar, propagateTags, refactorTags);
 			//part of DP1 adds observer to several objects
-			Buttons buttonListener = new Buttons(pictures, renamer);
+			Buttons buttonListener = new Buttons(pictures);
 			addTag.addActionListener(buttonListener);
 			removeTag.addActionListener(buttonListener);
 			selectTags.addActionListener(buttonListener);
@@ -94,8 +118,32 @@ public class PhotoRenamerGUI extends JFrame{
 			viewTagSet.addActionListener(buttonListener);
 			viewImageHistory.addActionListener(buttonListener);
 			viewAllHistory.addActionListener(buttonListener);
+			exportCatalog.addActionListener(buttonListener);
+			importCatalog.addActionListener(buttonListener);
+			autoTag.addActionListener(buttonListener);
+			tagStatistics.addActionListener(buttonListener);
+			findSimilar.addActionListener(buttonListener);
+			propagateTags.addActionListener(buttonListener);
+			refactorTags.addActionListener(buttonListener);
 			JScrollPane scroller = new JScrollPane(pictures);
-			panel.add(scroller);
+			//the list starts out empty, so it can not size itself to the images
+			scroller.setPreferredSize(new Dimension(300, 200));
+			//the grid only decodes the thumbnails of the tiles on screen and around them
+			ThumbnailGrid grid = new ThumbnailGrid(model, pictures.getSelectionModel());
+			JScrollPane gridScroller = new JScrollPane(grid, ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS,
+					ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+			gridScroller.getVerticalScrollBar().setUnitIncrement(ThumbnailGrid.TILE / 4);
+			//the decoder threads of the grid must not outlive the window
+			this.addWindowListener(new WindowAdapter(){
+				@Override
+				public void windowClosing(WindowEvent e){
+					grid.shutdown();
+				}
+			});
+			views.addTab("Names", scroller);
+			views.addTab("Thumbnails", gridScroller);
+			views.setPreferredSize(new Dimension(300, 230));
+			panel.add(views);
 			panel.add(selectTags);
 		    panel.add(removeTag);
 		    panel.add(revertName);
@@ -105,6 +153,15 @@ public class PhotoRenamerGUI extends JFrame{
 		    panel.add(viewTagSet);
 		    panel.add(viewImageHistory);
 		    panel.add(viewAllHistory);
+		    panel.add(exportCatalog);
+		    panel.add(importCatalog);
+		    panel.add(autoTag);
+		    panel.add(tagStatistics);
+		    panel.add(findSimilar);
+		    panel.add(propagateTags);
+		    panel.add(refactorTags);
+		    panel.add(tasks.getProgressBar());
+		    panel.add(tasks.getCancelButton());
 		    panel.setBackground(Color.WHITE);
 		    width = scroller.getWidth();
 			this.add(panel);
@@ -112,31 +169,100 @@ public class PhotoRenamerGUI extends JFrame{
 			this.pack();
 			this.setSize(300 + width, 700);
 			this.setVisible(true);
+			open(directoryChooser.getSelectedFile());
 		}else{
 			//if the user hasn't chosen a directory the program shuts down
 			System.exit(ABORT);
 		}
 	}
 	 
+	@Override
+	public void paint(Graphics g){
+		super.paint(g);
+		if(timings != null){
+			timings.mark("first paint");
+		}
+	}
+	/**
+	 * A helper method which opens the directory in the background. Images are added to
+	 * the list as they are found and the first one is shown; the buttons work once the
+	 * whole directory is open.
+	 */
+	private void open(File directory){
+		//the directories of the library shown so far are no longer needed
+		if(renamer != null){
+			renamer.close();
+		}
+		tasks.run("Opening " + directory.getName(), progress -> new PhotoRenamer(directory, found -> {
+			SwingUtilities.invokeLater(() -> {
+				boolean first = model.isEmpty();
+				for(Image image: found){
+					model.addElement(image);
+				}
+				timings.mark("images shown");
+				if(first && !(model.isEmpty())){
+					display(model.get(0));
+				}
+			});
+		}, timings), null, opened -> {
+			renamer = opened;
+			timings.mark("ready");
+			Logger.getLogger(PhotoRenamer.class.getName()).log(Level.FINE,
+					String.format("window ready for %s%n%s", directory, timings.report()));
+			List<String> pending = opened.pendingTagRefactoring();
+			if(pending != null && JOptionPane.showConfirmDialog(this, String.format("Renaming %s to %s was interrupted. Finish it now?",
+					String.join(", ", pending.subList(1, pending.size())), pending.get(0)), "Unfinished Tag Rename",
+					JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION){
+				tasks.run("Finishing tag rename", progress -> opened.resumeTagRefactoring(progress::isCancelled), null,
+						retagged -> repaint());
+			}
+		});
+	}
+	/**
+	 * A helper method which decodes the picture of an image in the background and shows
+	 * it, unless another image was asked for in the meantime.
+	 */
+	private void display(Image image){
+		displayed = image;
+		new SwingWorker<ImageIcon, Void>(){
+			@Override
+			protected ImageIcon doInBackground() throws IOException{
+				if(displayed != image){
+					return null;
+				}
+				BufferedImage picture = ImageIO.read(image.getImage());
+				return picture == null ? null : new ImageIcon(picture.getScaledInstance(250, 200, BufferedImage.SCALE_SMOOTH));
+			}
+			@Override
+			protected void done(){
+				if(displayed != image){
+					return;
+				}
+				try {
+					imageLabel.setIcon(get());
+				} catch (InterruptedException | ExecutionException e) {
+					imageLabel.setIcon(null);
+					e.printStackTrace();
+				}
+			}
+		}.execute();
+	}
+	 
 	private class ImageDisplay implements ListSelectionListener{
 		private JList<Image> pictures;
-		private JLabel imageLabel;
-		private BufferedImage[] image;
-		private ImageIcon icon;
 		
-		ImageDisplay(JLabel label, JList<Image> list, BufferedImage[] image, ImageIcon icon){
+		ImageDisplay(JList<Image> list){
 			this.pictures = list;
-			this.imageLabel = label;
-			this.image = image;
-			this.icon = icon;
 		}
 
 		@Override
 		public void valueChanged(ListSelectionEvent e) {
 			//changes which image is displayed in the gui depending on what item in the 
 			//JList of pictures is selected
-			icon = new ImageIcon(image[pictures.getSelectedIndex()].getScaledInstance(250, 200, BufferedImage.SCALE_SMOOTH));
-			imageLabel.setIcon(icon);
+			if(pictures.getSelectedIndex() < 0){
+				return;
+			}
+			display(pictures.getSelectedValue());
 		}
 		
 	}
@@ -144,71 +270,79 @@ public class PhotoRenamerGUI extends JFrame{
 	//what the observed object is.
 	private class Buttons implements ActionListener{
 		private JList<Image> pictures;
-		private PhotoRenamer renamer;
 		
-		Buttons(JList<Image> pictures, PhotoRenamer renamer){
+		Buttons(JList<Image> pictures){
 			this.pictures = pictures;
-			this.renamer = renamer;
 		}
 		@Override
 		public void actionPerformed(ActionEvent e) {
+			//dialogs are shown here on the event thread; every call to the back-end is
+			//handed to the task runner so the window stays responsive
+			if(renamer == null){
+				//the directory is still being opened
+				return;
+			}
 			JButton event = (JButton) e.getSource();
+			List<Image> selection = pictures.getSelectedValuesList();
 			if(event.equals(addTag)){
 				//if the addTag button is pressed
 			    String tag = "@" + JOptionPane.showInputDialog("Pick a Tag (Tag should not contain '@' character)");
-			    Image selected = pictures.getSelectedValue();
-			    if(!tag.equals("@null")){
-			    	try {
-			    		renamer.addTag(selected, tag);
-			    	} catch (ImageNotFoundException e1) {
-			    		JOptionPane.showMessageDialog(panel, "Could not add tag");
-			    		e1.printStackTrace();
-			    	}
+			    if(!tag.equals("@null") && !selection.isEmpty()){
+			    	tagImages("Adding tag " + tag, selection, image -> renamer.addTag(image, tag));
 			    }else{
 			    	return;
 			    }
 		    }else if(event.equals(removeTag)){
 		    	//if the remove tag button is pressed
-				Image selected = pictures.getSelectedValue();
-				if(selected == null){
+				if(selection.isEmpty()){
 					return;
 				}
-				JList<String> toBeRemoved = new JList<>(selected.getCurrTags());
+				LinkedHashSet<String> tags = new LinkedHashSet<>();
+				for(Image image: selection){
+					tags.addAll(Arrays.asList(image.getCurrTags()));
+				}
+				JList<String> toBeRemoved = new JList<>(tags.toArray(new String[tags.size()]));
 				JScrollPane scroller = new JScrollPane(toBeRemoved);
 				scroller.setPreferredSize(new Dimension(300,125));
 				JOptionPane.showMessageDialog(panel,scroller,"Select Tags to Delete", JOptionPane.PLAIN_MESSAGE);
-				String[] values = toBeRemoved.getSelectedValuesList().toArray(new String[toBeRemoved.getSelectedValuesList().size()]);
-				try {
-					renamer.deleteMultipleTags(selected, values);
-				}catch (ImageNotFoundException | TagNotFoundException e1){
-					JOptionPane.showMessageDialog(panel, "Something Went Wrong");
-					e1.printStackTrace();
+				List<String> values = toBeRemoved.getSelectedValuesList();
+				if(values.isEmpty()){
+					return;
 				}
+				tagImages("Removing tags", selection, image -> {
+					//with several images selected only delete the tags each one has
+					List<String> current = Arrays.asList(image.getCurrTags());
+					for(String value: values){
+						if(current.contains(value)){
+							renamer.deleteTag(image, value);
+						}
+					}
+				});
 			}else if(event.equals(selectTags)){
 				//if the select tag button is pressed
-				Image selected = pictures.getSelectedValue();
 				JList<String> toBeAdded = new JList<>(PhotoRenamer.getTagSet());
-				if(toBeAdded.getSelectedValuesList().contains(null) || selected == null){
+				if(toBeAdded.getSelectedValuesList().contains(null) || selection.isEmpty()){
 					return;
 				}
 				JScrollPane scroller = new JScrollPane(toBeAdded);
 				scroller.setPreferredSize(new Dimension(300,125));
 				JOptionPane.showMessageDialog(panel, scroller, "Select Tags", JOptionPane.PLAIN_MESSAGE);
 				String[] values = toBeAdded.getSelectedValuesList().toArray(new String[toBeAdded.getSelectedValuesList().size()]);
-				try {
-					renamer.addMultipleTags(selected, values);
-				} catch (ImageNotFoundException e1) {
-					JOptionPane.showMessageDialog(panel, "Something Went Wrong");
-					e1.printStackTrace();
+				if(values.length == 0){
+					return;
 				}
+				tagImages("Adding tags", selection, image -> renamer.addMultipleTags(image, values));
 			}else if(event.equals(revertName)){
 				//if the revertName button is pressed				
 				Image selected = pictures.getSelectedValue();
 				if(selected == null){
 					return;
 				}
-				try {
-					JList<String> olderNames = new JList<>(renamer.viewImageNames(selected));
+				//the older names may have to be read from the history archive, and the
+				//back-end may still be busy with a cancelled task, so they are read in
+				//the background too
+				tasks.run("Reading older names of " + selected, progress -> renamer.viewImageNames(selected), null, names -> {
+					JList<String> olderNames = new JList<>(names);
 					olderNames.getSelectionModel().setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 					JScrollPane scroller = new JScrollPane(olderNames);
 					scroller.setPreferredSize(new Dimension(300,125));
@@ -217,19 +351,20 @@ public class PhotoRenamerGUI extends JFrame{
 					if(name == null){
 						name = selected.toString();
 					}
-					renamer.olderName(selected, name);
-				} catch (ImageNotFoundException e1) {
-					JOptionPane.showMessageDialog(panel, "Something Went Wrong");
-					e1.printStackTrace();
-				} catch (TagNotFoundException e1) {
-					JOptionPane.showMessageDialog(panel, "Something Went Wrong");
-					e1.printStackTrace();
-				}
+					String olderName = name;
+					tasks.run("Reverting " + selected, progress -> {
+						renamer.olderName(selected, olderName);
+						return null;
+					}, null, result -> views.repaint());
+				});
 			}else if(event.equals(addToSet)){
 				//if the addToSet button is pressed
 				String tag = "@" + JOptionPane.showInputDialog("Pick a Tag");
 			    if(!tag.equals("@null")){
-			    	PhotoRenamer.addToSet(tag);
+			    	tasks.run("Adding " + tag + " to tag set", progress -> {
+			    		PhotoRenamer.addToSet(tag);
+			    		return null;
+			    	}, null, null);
 			    }else{
 			    	return;
 			    }
@@ -240,51 +375,176 @@ public class PhotoRenamerGUI extends JFrame{
 				scroller.setPreferredSize(new Dimension(300,125));
 				JOptionPane.showMessageDialog(panel, scroller, "Select Tags to Remove", JOptionPane.PLAIN_MESSAGE);
 				String[] values = toBeRemoved.getSelectedValuesList().toArray(new String[toBeRemoved.getSelectedValuesList().size()]);
-				try{
+				tasks.run("Removing tags from tag set", progress -> {
 					for(String v: values){
 						if(v == null){
-							return;
+							break;
 						}
 						PhotoRenamer.deleteFromSet(v);
 					}
-				}catch(TagNotFoundException e1){
-					JOptionPane.showMessageDialog(panel, "Something Went Wrong");
-					e1.printStackTrace();
-				}
+					return null;
+				}, null, null);
 			}else if(event.equals(viewTagSet)){
 				//if the viewTagSet button is pressed
-				JTextArea tags = new JTextArea();
-				tags.setEditable(false);
-				tags.setText(PhotoRenamer.viewTagSet());
-				JScrollPane scroller = new JScrollPane(tags);
-				scroller.setPreferredSize(new Dimension(300,125));
-				JOptionPane.showMessageDialog(panel, scroller);
+				showText("Reading tag set", progress -> {
+					progress.publish(PhotoRenamer.viewTagSet());
+					return null;
+				});
 			}else if(event.equals(viewImageHistory)){
 				//if the viewImageHistory button is pressed
-				JTextArea names = new JTextArea();
-				names.setEditable(false);
 				Image selected = pictures.getSelectedValue();
 				if(selected == null){
 					return;
 				}
-				try {
-					names.setText(renamer.viewImageLog(selected));
-					JScrollPane scroller = new JScrollPane(names);
-					scroller.setPreferredSize(new Dimension(300,125));
-					JOptionPane.showMessageDialog(panel,scroller);
-				} catch (ImageNotFoundException e1) {
-					JOptionPane.showMessageDialog(panel, "something went horribly wrong");
-					e1.printStackTrace();
-				}
+				showText("Reading history of " + selected, progress -> {
+					progress.publish(renamer.viewImageLog(selected));
+					return null;
+				});
 			}else if(event.equals(viewAllHistory)){
-				//if the view all history button is pressed.
-				JTextArea history = new JTextArea();
-				history.setEditable(false);
-				history.setText(PhotoRenamer.getAllHistory());
-				JScrollPane scroller = new JScrollPane(history);
+				//if the view all history button is pressed; lines are shown as they are read
+				showText("Reading all history", progress -> {
+					PhotoRenamer.readAllHistory(line -> {
+						if(!progress.isCancelled()){
+							progress.publish(line + "\n");
+						}
+					});
+					return null;
+				});
+			}else if(event.equals(exportCatalog)){
+				//if the export catalog button is pressed (.csv files are written as CSV,
+				//anything else as line-delimited JSON)
+				JFileChooser chooser = new JFileChooser();
+				if(chooser.showSaveDialog(panel) != JFileChooser.APPROVE_OPTION){
+					return;
+				}
+				File out = chooser.getSelectedFile();
+				tasks.run("Exporting catalog", progress -> {
+					renamer.exportCatalog(out);
+					return null;
+				}, null, null);
+			}else if(event.equals(importCatalog)){
+				//if the import catalog button is pressed
+				JFileChooser chooser = new JFileChooser();
+				if(chooser.showOpenDialog(panel) != JFileChooser.APPROVE_OPTION){
+					return;
+				}
+				File in = chooser.getSelectedFile();
+				tasks.run("Importing catalog", progress -> renamer.importCatalog(in), null, matched -> {
+					views.repaint();
+					JOptionPane.showMessageDialog(panel, String.format("Imported %d images", matched));
+				});
+			}else if(event.equals(autoTag)){
+				//if the auto tag button is pressed
+				tasks.run("Auto-tagging", progress -> renamer.autoTag(), null, tagged -> {
+					views.repaint();
+					JOptionPane.showMessageDialog(panel, String.format("Tagged %d images", tagged));
+				});
+			}else if(event.equals(findSimilar)){
+				//if the find similar button is pressed the similar images are selected
+				Image selected = pictures.getSelectedValue();
+				if(selected == null){
+					return;
+				}
+				tasks.run("Looking for images similar to " + selected,
+						progress -> renamer.findSimilar(selected, DuplicateFinder.DEFAULT_DISTANCE), null, similar -> {
+					List<Integer> indices = new ArrayList<>();
+					indices.add(model.indexOf(selected));
+					for(Image image: similar){
+						indices.add(model.indexOf(image));
+					}
+					pictures.setSelectedIndices(indices.stream().mapToInt(Integer::intValue).toArray());
+					JOptionPane.showMessageDialog(panel, String.format("Found %d similar images", similar.size()));
+				});
+			}else if(event.equals(propagateTags)){
+				//if the share tags button is pressed
+				tasks.run("Sharing tags between duplicates",
+						progress -> renamer.propagateTagsToDuplicates(DuplicateFinder.DEFAULT_DISTANCE), null, tagged -> {
+					views.repaint();
+					JOptionPane.showMessageDialog(panel, String.format("Tagged %d images", tagged));
+				});
+			}else if(event.equals(refactorTags)){
+				//if the rename or merge tags button is pressed the chosen tags are all
+				//renamed to one new tag
+				JList<String> toBeRenamed = new JList<>(PhotoRenamer.getTagSet());
+				JScrollPane scroller = new JScrollPane(toBeRenamed);
 				scroller.setPreferredSize(new Dimension(300,125));
-				JOptionPane.showMessageDialog(panel, scroller);
+				JOptionPane.showMessageDialog(panel, scroller, "Select Tag(s) to Rename", JOptionPane.PLAIN_MESSAGE);
+				List<String> from = toBeRenamed.getSelectedValuesList();
+				if(from.isEmpty()){
+					return;
+				}
+				String to = "@" + JOptionPane.showInputDialog("New name of the tag(s) (should not contain '@' character)");
+				if(to.equals("@null")){
+					return;
+				}
+				tasks.run("Renaming " + String.join(", ", from) + " to " + to,
+						progress -> renamer.mergeTags(to, from, progress::isCancelled), null, retagged -> {
+					views.repaint();
+					JOptionPane.showMessageDialog(panel, String.format("Retagged %d images", retagged));
+				});
+			}else if(event.equals(tagStatistics)){
+				//if the tag statistics button is pressed
+				TagStatistics statistics = renamer.getTagStatistics();
+				tasks.run("Reading tag statistics", progress -> statistics.counts(), null,
+						counts -> showStatistics(statistics, counts));
+			}
+		}
+		/**
+		 * A helper method which shows how many images carry each tag; selecting a tag
+		 * shows which tags occur together with it. Unused tags are listed below.
+		 */
+		private void showStatistics(TagStatistics statistics, Map<String, Integer> counts){
+			DefaultListModel<String> model = new DefaultListModel<>();
+			for(Map.Entry<String, Integer> entry: counts.entrySet()){
+				model.addElement(entry.getKey() + " (" + entry.getValue() + ")");
 			}
+			JList<String> tags = new JList<>(model);
+			tags.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+			String[] tagNames = counts.keySet().toArray(new String[counts.size()]);
+			JTextArea together = new JTextArea();
+			together.setEditable(false);
+			tags.addListSelectionListener(e -> {
+				if(tags.getSelectedIndex() < 0){
+					return;
+				}
+				StringBuilder s = new StringBuilder("Occurs with:\n");
+				for(Map.Entry<String, Integer> entry: statistics.coOccurring(tagNames[tags.getSelectedIndex()]).entrySet()){
+					s.append(entry.getKey()).append(" (").append(entry.getValue()).append(")\n");
+				}
+				together.setText(s.toString());
+			});
+			JTextArea unused = new JTextArea("Unused tags: " + String.join(" ", statistics.unused(PhotoRenamer.getTagSet())));
+			unused.setEditable(false);
+			unused.setLineWrap(true);
+			JPanel statisticsPanel = new JPanel(new BorderLayout());
+			JScrollPane tagScroller = new JScrollPane(tags);
+			tagScroller.setPreferredSize(new Dimension(200,200));
+			JScrollPane togetherScroller = new JScrollPane(together);
+			togetherScroller.setPreferredSize(new Dimension(200,200));
+			statisticsPanel.add(tagScroller, BorderLayout.WEST);
+			statisticsPanel.add(togetherScroller, BorderLayout.EAST);
+			statisticsPanel.add(unused, BorderLayout.SOUTH);
+			JOptionPane.showMessageDialog(panel, statisticsPanel, "Tag Statistics", JOptionPane.PLAIN_MESSAGE);
+		}
+		/**
+		 * A helper method which runs an action on every selected image in the
+		 * background, in batches that can be cancelled.
+		 */
+		private void tagImages(String description, List<Image> selection, TaskRunner.ItemAction<Image> action){
+			tasks.run(description, progress -> TaskRunner.forEachInBatches(renamer, selection, BATCH_SIZE, progress, action),
+					null, done -> views.repaint());
+		}
+		/**
+		 * A helper method which shows a text area and fills it with the text a
+		 * background task publishes.
+		 */
+		private void showText(String description, TaskRunner.Task<Void> task){
+			JTextArea text = new JTextArea();
+			text.setEditable(false);
+			JScrollPane scroller = new JScrollPane(text);
+			scroller.setPreferredSize(new Dimension(300,125));
+			tasks.run(description, task, text::append, null);
+			JOptionPane.showMessageDialog(panel, scroller);
 		}
 	}
 	//part of DP2. (global point of access) 
@@ -0,0 +1,16 @@
+package photo_renamer;
+
+public class RenameDeniedException extends RenameException{
+
+	/**
+	 * This exception is thrown when the file system does not allow the file of an
+	 * image to be renamed (e.g. a read-only share or missing permissions).
+	 * 
+	 * serialVersionUID: generated so this class can be serialized.
+	 */
+	private static final long serialVersionUID = -1938473021645723814L;
+	RenameDeniedException(String name, Throwable cause){
+		super(name, "permission denied", cause);
+	}
+
+}
@@ -0,0 +1,153 @@
+package photo_renamer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+
+
+public class RenameEngine implements Closeable{
+
+	/**
+	 * A RenameEngine renames files inside one directory. Where the platform has a
+	 * SecureDirectoryStream (Linux and most other Unixes), the directory is opened once
+	 * and every rename is done relative to that open handle, so the path of the
+	 * directory (which may be deep, or on a network share) is resolved once instead of
+	 * two or three times per rename; elsewhere Files.move is used with the path of the
+	 * directory built once. Every rename either succeeds or throws a RenameException
+	 * saying why: NameCollisionException if the new name is taken,
+	 * ImageFileMissingException if the file is gone, RenameDeniedException if the file
+	 * system refuses.
+	 *
+	 * A rename never replaces a file that exists when the rename is checked: the new
+	 * name is looked up right before the file is moved (by one stat relative to the
+	 * handle, or by Files.move itself, which checks the same way on Unix). The check
+	 * and the move are two steps, though, so a file that another program creates
+	 * under the new name in between is replaced; the file system offers no portable
+	 * rename that refuses an existing name.
+	 *
+	 * Renames of many images are grouped by directory (see PhotoRenamer.applyTags), and
+	 * batches of single changes keep one engine per directory open until the batch
+	 * ends, so each directory is opened once for the whole group. A rename on its own
+	 * does not open the directory at all (see renameOne).
+	 *
+	 * directory: the directory the files are renamed in
+	 * path: its path, built once
+	 * handle: the open directory, or null where there is no SecureDirectoryStream
+	 */
+	private final DirectoryNode directory;
+	private final Path path;
+	private final SecureDirectoryStream<Path> handle;
+
+	/**
+	 * Opens a directory for renaming.
+	 *
+	 * @param directory: the directory
+	 * @throws RenameException: thrown if the directory can not be opened
+	 */
+	RenameEngine(DirectoryNode directory) throws RenameException{
+		this.directory = directory;
+		this.path = directory.toFile().toPath();
+		SecureDirectoryStream<Path> secure = null;
+		try{
+			DirectoryStream<Path> stream = Files.newDirectoryStream(path);
+			if(stream instanceof SecureDirectoryStream){
+				secure = (SecureDirectoryStream<Path>) stream;
+			}else{
+				stream.close();
+			}
+		}catch(IOException e){
+			throw failure(directory.toString(), e);
+		}
+		this.handle = secure;
+	}
+	/**
+	 * Renames a file of the directory. The new name must not be taken; it is checked
+	 * right before the move, but a file created under it in between is replaced.
+	 *
+	 * @param from: the current name of the file
+	 * @param to: the new name of the file
+	 * @throws RenameException: thrown if the file was not renamed, with the reason
+	 */
+	public void rename(String from, String to) throws RenameException{
+		try{
+			if(handle != null){
+				Path source = Paths.get(from);
+				Path target = Paths.get(to);
+				//renaming relative to a handle replaces an existing file, so make sure
+				//there is none (one stat relative to the handle; a file created after it
+				//is still replaced)
+				if(exists(target)){
+					throw new FileAlreadyExistsException(to);
+				}
+				handle.move(source, handle, target);
+			}else{
+				//Files.move itself refuses to replace a file that exists when it checks
+				Files.move(path.resolve(from), path.resolve(to));
+			}
+		}catch(FileAlreadyExistsException e){
+			throw new NameCollisionException(from, to);
+		}catch(IOException e){
+			throw failure(from, e);
+		}
+	}
+	/**
+	 * Closes the directory.
+	 */
+	@Override
+	public void close(){
+		if(handle != null){
+			try{
+				handle.close();
+			}catch(IOException e){
+				System.out.println("could not close directory " + directory);
+			}
+		}
+	}
+	/**
+	 * Renames a single file with Files.move, without opening its directory (for one
+	 * rename that would cost more than it saves).
+	 *
+	 * @param directory: the directory of the file
+	 * @param from: the current name of the file
+	 * @param to: the new name of the file
+	 * @throws RenameException: thrown if the file was not renamed, with the reason
+	 */
+	static void renameOne(DirectoryNode directory, String from, String to) throws RenameException{
+		Path path = directory.toFile().toPath();
+		try{
+			Files.move(path.resolve(from), path.resolve(to));
+		}catch(FileAlreadyExistsException e){
+			throw new NameCollisionException(from, to);
+		}catch(IOException e){
+			throw failure(from, e);
+		}
+	}
+	private boolean exists(Path name) throws IOException{
+		try{
+			handle.getFileAttributeView(name, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).readAttributes();
+			return true;
+		}catch(NoSuchFileException e){
+			return false;
+		}
+	}
+	/**
+	 * A helper method which turns an I/O error into the matching RenameException.
+	 */
+	private static RenameException failure(String name, IOException e){
+		if(e instanceof NoSuchFileException){
+			return new ImageFileMissingException(name, e);
+		}
+		if(e instanceof AccessDeniedException){
+			return new RenameDeniedException(name, e);
+		}
+		return new RenameException(name, e.toString(), e);
+	}
+}
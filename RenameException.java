@@ -0,0 +1,22 @@
+package photo_renamer;
+
+public class RenameException extends Exception{
+
+	/**
+	 * This exception is thrown when the file of an image could not be renamed. The
+	 * image keeps its old name when this is thrown.
+	 * 
+	 * serialVersionUID: generated so this class can be serialized.
+	 */
+	private static final long serialVersionUID = 4025783520693415507L;
+	RenameException(String name){
+		super("Could not rename image " + name);
+	}
+	RenameException(String name, String reason){
+		super("Could not rename image " + name + ": " + reason);
+	}
+	RenameException(String name, String reason, Throwable cause){
+		super("Could not rename image " + name + ": " + reason, cause);
+	}
+
+}
@@ -0,0 +1,205 @@
+package photo_renamer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class RenamePlan{
+
+	/**
+	 * A RenamePlan is a batch of images to retag, each with the name it will end up
+	 * with. Before anything is renamed, validate checks the whole batch against the
+	 * NameIndex in time proportional to the size of the batch and takes out every
+	 * image whose new name would collide: with a file that stays where it is, with
+	 * another image of the batch, or in a cycle of renames. An image may take a name
+	 * that another image of the batch gives up; rounds orders the renames so the old
+	 * name is always free by the time it is taken.
+	 *
+	 * moves: the renames of the plan, in the order they were added
+	 */
+	private List<Move> moves = new ArrayList<>();
+
+	/**
+	 * One image of the plan: the tags it gets and its name before and after.
+	 */
+	static class Move{
+		final Image image;
+		final String[] tags;
+		final String from;
+		final String to;
+		private Move blocker;
+		private int round = -1;
+
+		private Move(Image image, String[] tags){
+			this.image = image;
+			this.tags = tags;
+			this.from = image.toString();
+			this.to = image.nameWithTags(tags);
+		}
+		private DirectoryNode directory(){
+			return image.getParent();
+		}
+	}
+
+	/**
+	 * Adds an image to the plan.
+	 *
+	 * @param image: the image to retag
+	 * @param tags: the tags the image should end up with
+	 */
+	public void add(Image image, String[] tags){
+		moves.add(new Move(image, tags));
+	}
+	/**
+	 * Gives the number of images in the plan.
+	 *
+	 * @return the number of images in the plan
+	 */
+	public int size(){
+		return moves.size();
+	}
+	/**
+	 * Checks every rename of the plan for collisions and takes the colliding ones out
+	 * of the plan. Nothing is renamed.
+	 *
+	 * @param index: the names currently taken in each directory
+	 * @return a description of every rename that was taken out
+	 */
+	public List<String> validate(NameIndex index){
+		List<String> conflicts = new ArrayList<>();
+		//the moves by the name they give up and by the name they take, per directory
+		Map<DirectoryNode, Map<String, Move>> sources = new HashMap<>();
+		Map<DirectoryNode, Map<String, Move>> targets = new HashMap<>();
+		Map<Move, String> bad = new HashMap<>();
+		for(Move move: moves){
+			if(names(sources, move.directory()).put(move.from, move) != null){
+				bad.put(move, "image is in the plan twice");
+			}
+		}
+		for(Move move: moves){
+			if(move.from.equals(move.to)){
+				continue;
+			}
+			Move other = names(targets, move.directory()).put(move.to, move);
+			if(other != null){
+				bad.put(move, "another image of the batch is renamed to " + move.to);
+				bad.put(other, "another image of the batch is renamed to " + move.to);
+			}
+			move.blocker = names(sources, move.directory()).get(move.to);
+			if(move.blocker != null && move.blocker.from.equals(move.blocker.to)){
+				bad.put(move, "another image of the batch keeps the name " + move.to);
+			}else if(move.blocker == null && index.isOccupied(move.directory(), move.to)){
+				bad.put(move, "a file named " + move.to + " already exists");
+			}
+		}
+		//a move waiting for the name of a bad move (or for itself, in a cycle) is bad too
+		for(Move move: moves){
+			resolve(move, bad);
+		}
+		List<Move> valid = new ArrayList<>();
+		for(Move move: moves){
+			String reason = bad.get(move);
+			if(reason == null){
+				valid.add(move);
+			}else{
+				conflicts.add(String.format("%s -> %s: %s", move.from, move.to, reason));
+			}
+		}
+		moves = valid;
+		return conflicts;
+	}
+	/**
+	 * Gives the renames of a validated plan in rounds: the renames of a round can run
+	 * in parallel, and every rename whose new name is given up by another rename runs
+	 * in a later round than that one.
+	 *
+	 * @return the rounds, in the order they have to run
+	 */
+	public List<List<Move>> rounds(){
+		List<List<Move>> rounds = new ArrayList<>();
+		//the round of every move, so each chain of blockers is followed only once
+		Map<Move, Integer> known = new HashMap<>();
+		for(Move move: moves){
+			List<Move> chain = new ArrayList<>();
+			Move current = move;
+			while(current != null && !(known.containsKey(current))){
+				chain.add(current);
+				current = current.blocker;
+			}
+			int round = current == null ? -1 : known.get(current);
+			for(int i = chain.size() - 1; i >= 0; i--){
+				known.put(chain.get(i), ++round);
+			}
+			round = known.get(move);
+			while(rounds.size() <= round){
+				rounds.add(new ArrayList<Move>());
+			}
+			rounds.get(round).add(move);
+		}
+		return rounds;
+	}
+	/**
+	 * Groups the renames of a round by the directory they happen in.
+	 *
+	 * @param round: the renames of a round
+	 * @return the renames of every directory, in the order of the round
+	 */
+	static Map<DirectoryNode, List<Move>> byDirectory(List<Move> round){
+		Map<DirectoryNode, List<Move>> byDirectory = new LinkedHashMap<>();
+		for(Move move: round){
+			List<Move> moves = byDirectory.get(move.directory());
+			if(moves == null){
+				moves = new ArrayList<>();
+				byDirectory.put(move.directory(), moves);
+			}
+			moves.add(move);
+		}
+		return byDirectory;
+	}
+	/**
+	 * A helper method which follows the chain of moves a move waits for and marks
+	 * the chain bad if it ends at a bad move or runs in a cycle. Every move is
+	 * followed once, so all calls together take time proportional to the plan.
+	 */
+	private static void resolve(Move move, Map<Move, String> bad){
+		List<Move> chain = new ArrayList<>();
+		Move current = move;
+		String reason = null;
+		while(current != null && current.round == -1){
+			current.round = -2;
+			chain.add(current);
+			if(bad.containsKey(current)){
+				reason = "waits for " + current.to + " which can not be renamed";
+				break;
+			}
+			Move next = current.blocker;
+			if(next == current){
+				break;
+			}
+			if(next != null && next.round == -2){
+				reason = "renames run in a cycle";
+				break;
+			}
+			current = next;
+		}
+		if(reason == null && current != null && current.round == -3){
+			reason = "waits for " + current.to + " which can not be renamed";
+		}
+		for(Move done: chain){
+			done.round = reason == null ? 0 : -3;
+			if(reason != null && !(bad.containsKey(done))){
+				bad.put(done, reason);
+			}
+		}
+	}
+	private static Map<String, Move> names(Map<DirectoryNode, Map<String, Move>> byDirectory, DirectoryNode directory){
+		Map<String, Move> names = byDirectory.get(directory);
+		if(names == null){
+			names = new HashMap<>();
+			byDirectory.put(directory, names);
+		}
+		return names;
+	}
+}
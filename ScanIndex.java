@@ -0,0 +1,181 @@
+package photo_renamer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+
+public class ScanIndex{
+
+	/**
+	 * The ScanIndex remembers, for every directory of a library, what it looked like
+	 * when it was last listed: its modification time and size, the names of the
+	 * directories in it and whether it has a shard. Adding, removing or renaming a
+	 * file in a directory changes its modification time, so a directory whose
+	 * fingerprint did not change holds the same files as before: its images are all
+	 * in its shard, and it need not be listed (nor its files checked for being
+	 * images) again. Changes inside a subdirectory do not touch the fingerprint of
+	 * its parent, so every known directory is checked on its own; the checks are one
+	 * stat each and run in parallel before the tree is walked.
+	 *
+	 * A directory that was modified less than RACY_MILLIS before it was listed is not
+	 * remembered: a change made in the same tick of a coarse file system clock would
+	 * not change its modification time, so it is listed again next time.
+	 *
+	 * The index is written to the INDEX_FILE of the opened directory, and only after
+	 * the shards were saved (see CatalogShards.save), so an unchanged directory never
+	 * has images that are missing from its shard. Directories whose shard could not
+	 * be written are forgotten.
+	 *
+	 * INDEX_FILE: the name of the index in the opened directory
+	 * RACY_MILLIS: how long after a modification a listing is not trusted
+	 *
+	 * file: the index file
+	 * unchanged: the directories whose fingerprint is still the same
+	 * scanned: the fingerprints of this scan
+	 */
+	static final String INDEX_FILE = ".directories.ser";
+	static final long RACY_MILLIS = 2000;
+	private final File file;
+	private final Map<DirectoryNode, Fingerprint> unchanged;
+	private final HashMap<DirectoryNode, Fingerprint> scanned = new HashMap<>();
+
+	/**
+	 * Reads the index of a directory and checks, in parallel, which of the
+	 * directories in it did not change.
+	 *
+	 * @param root: the opened directory
+	 */
+	ScanIndex(File root){
+		this.file = new File(root, INDEX_FILE);
+		this.unchanged = read(file).entrySet().parallelStream()
+				.filter(known -> known.getValue().matches(stat(known.getKey().toFile())))
+				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+	}
+	/**
+	 * Gives the fingerprint of a directory if it did not change since it was last
+	 * listed; the fingerprint is kept for the next scan.
+	 *
+	 * @param directory: the directory
+	 * @return its fingerprint, or null if the directory has to be listed
+	 */
+	synchronized Fingerprint unchanged(DirectoryNode directory){
+		Fingerprint known = unchanged.get(directory);
+		if(known != null){
+			scanned.put(directory, known);
+		}
+		return known;
+	}
+	/**
+	 * Records the fingerprint of a directory that was listed.
+	 *
+	 * @param directory: the directory
+	 * @param before: the attributes of the directory read before it was listed, or
+	 * null if they could not be read
+	 * @param subdirectories: the names of the directories in it
+	 * @param shard: whether it has a shard
+	 */
+	synchronized void listed(DirectoryNode directory, BasicFileAttributes before, List<String> subdirectories,
+			boolean shard){
+		if(before == null
+				|| before.lastModifiedTime().toMillis() > System.currentTimeMillis() - RACY_MILLIS){
+			return;
+		}
+		scanned.put(directory, new Fingerprint(before, subdirectories.toArray(new String[subdirectories.size()]),
+				shard));
+	}
+	/**
+	 * Forgets a directory, so it is listed on the next scan.
+	 *
+	 * @param directory: the directory
+	 */
+	synchronized void forget(DirectoryNode directory){
+		scanned.remove(directory);
+	}
+	/**
+	 * Writes the fingerprints of this scan to the index file.
+	 */
+	synchronized void write(){
+		try(ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))){
+			out.writeObject(scanned);
+		}catch(IOException e){
+			//the next scan simply lists every directory
+			System.out.println("could not write directory index");
+			e.printStackTrace();
+		}
+	}
+	/**
+	 * Reads the attributes of a directory.
+	 *
+	 * @param directory: the directory
+	 * @return its attributes, or null if they can not be read
+	 */
+	static BasicFileAttributes stat(File directory){
+		try{
+			return Files.readAttributes(directory.toPath(), BasicFileAttributes.class);
+		}catch(IOException e){
+			return null;
+		}
+	}
+	@SuppressWarnings("unchecked") //the index is always a HashMap of directories to fingerprints
+	private static HashMap<DirectoryNode, Fingerprint> read(File file){
+		if(!(file.isFile())){
+			return new HashMap<>();
+		}
+		try(ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))){
+			return (HashMap<DirectoryNode, Fingerprint>) in.readObject();
+		}catch(IOException | ClassNotFoundException | ClassCastException e){
+			System.out.println("could not read directory index, listing every directory");
+			return new HashMap<>();
+		}
+	}
+
+	/**
+	 * What a directory looked like when it was listed. The number of entries of a
+	 * directory can not be read without listing it, so its size (which grows with its
+	 * entries on most file systems) is compared along with its modification time.
+	 */
+	static class Fingerprint implements Serializable{
+		private static final long serialVersionUID = 3305827166031402846L;
+		private final long modified;
+		private final long size;
+		private final String[] subdirectories;
+		private final boolean shard;
+
+		Fingerprint(BasicFileAttributes attributes, String[] subdirectories, boolean shard){
+			this.modified = attributes.lastModifiedTime().toMillis();
+			this.size = attributes.size();
+			this.subdirectories = subdirectories;
+			this.shard = shard;
+		}
+		/**
+		 * Gives the names of the directories in the directory.
+		 *
+		 * @return the names of its subdirectories
+		 */
+		String[] getSubdirectories(){
+			return subdirectories;
+		}
+		/**
+		 * Tells whether the directory has a shard.
+		 *
+		 * @return true if it has a shard
+		 */
+		boolean hasShard(){
+			return shard;
+		}
+		private boolean matches(BasicFileAttributes attributes){
+			return attributes != null && attributes.isDirectory()
+					&& attributes.lastModifiedTime().toMillis() == modified && attributes.size() == size;
+		}
+	}
+}
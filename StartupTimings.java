@@ -0,0 +1,85 @@
+package photo_renamer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+public class StartupTimings{
+
+	/**
+	 * StartupTimings records when each stage of opening a library starts and ends, and
+	 * when single events (such as the first paint of the window) happen, all measured
+	 * from the moment the StartupTimings was made. Stages may overlap (the catalog is
+	 * loaded while the tree is scanned), so each stage keeps its own start and end
+	 * rather than just a duration. Stages and events may be recorded from any thread.
+	 *
+	 * start: when the StartupTimings was made, in nanoseconds
+	 * stages: the start and end of every stage (end is -1 while it runs), in the order
+	 * the stages started
+	 * events: when every event first happened
+	 */
+	private final long start = System.nanoTime();
+	private final LinkedHashMap<String, long[]> stages = new LinkedHashMap<>();
+	private final LinkedHashMap<String, Long> events = new LinkedHashMap<>();
+
+	/**
+	 * Records that a stage starts now.
+	 *
+	 * @param stage: the name of the stage
+	 */
+	public synchronized void begin(String stage){
+		stages.put(stage, new long[]{System.nanoTime() - start, -1});
+	}
+	/**
+	 * Records that a stage ends now.
+	 *
+	 * @param stage: the name of the stage
+	 */
+	public synchronized void end(String stage){
+		long[] times = stages.get(stage);
+		if(times != null){
+			times[1] = System.nanoTime() - start;
+		}
+	}
+	/**
+	 * Records that an event happens now, unless it already happened.
+	 *
+	 * @param event: the name of the event
+	 */
+	public synchronized void mark(String event){
+		if(!(events.containsKey(event))){
+			events.put(event, System.nanoTime() - start);
+		}
+	}
+	/**
+	 * Gives how long after the start an event first happened.
+	 *
+	 * @param event: the name of the event
+	 * @return the time in milliseconds, or -1 if the event has not happened
+	 */
+	public synchronized double millisUntil(String event){
+		Long at = events.get(event);
+		return at == null ? -1 : at / 1e6;
+	}
+	/**
+	 * Gives every stage with its start, end and duration and every event with its
+	 * time, one per line, in milliseconds from the start.
+	 *
+	 * @return the timings
+	 */
+	public synchronized String report(){
+		StringBuilder s = new StringBuilder();
+		for(Map.Entry<String, long[]> stage: stages.entrySet()){
+			long[] times = stage.getValue();
+			if(times[1] < 0){
+				s.append(String.format("  %-14s %9.1f ms - running%n", stage.getKey(), times[0] / 1e6));
+			}else{
+				s.append(String.format("  %-14s %9.1f ms - %9.1f ms  (%.1f ms)%n", stage.getKey(), times[0] / 1e6,
+						times[1] / 1e6, (times[1] - times[0]) / 1e6));
+			}
+		}
+		for(Map.Entry<String, Long> event: events.entrySet()){
+			s.append(String.format("  %-14s %9.1f ms%n", event.getKey(), event.getValue() / 1e6));
+		}
+		return s.toString();
+	}
+}
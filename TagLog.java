@@ -1,71 +1,192 @@
 package photo_renamer;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class TagLog implements Serializable{
-	
+
 	/**
-	 * The TagLog keeps track of all names an image has ever had and what time that 
+	 * The TagLog keeps track of all names an image has ever had and what time that
 	 * name was created. Each Image is associated with it's own TagLog.
-	 * 
+	 *
+	 * Only the newest names are kept here (and so in memory and in the shard of the
+	 * image): once there are more than HOT_ENTRIES, the oldest are moved to the
+	 * HistoryArchive of the directory when the shard is saved, and read back from it
+	 * only when the whole history is asked for.
+	 *
 	 * serialVersionUID: a constant long created by eclipse to make TagLog Serializable
-	 * 
-	 * name: A map of all names for a particular image, the key is the name of the image
-	 * and the values are the time the image was made. 
+	 *
+	 * HOT_ENTRIES: how many names are kept before the oldest are archived; half of
+	 * them are archived at a time
+	 *
+	 * name: A map of the newest names for a particular image, the key is the name of
+	 * the image and the values are the time the image was made, in the order they were
+	 * added (names made in the same second are archived in that order). Catalogs
+	 * written before the order was kept hold a HashMap here; it is copied when read.
+	 *
+	 * archived: where the newest archived entries of this TagLog start in the archive,
+	 * plus one (0 if nothing is archived)
+	 *
+	 * archive: the archive of the directory of the image, set by the image
 	 */
 	private static final long serialVersionUID = 5544347005324932220L;
-	private HashMap<String, String> name = new HashMap<>();
-	
+	static final int HOT_ENTRIES = 32;
+	private LinkedHashMap<String, String> name = new LinkedHashMap<>();
+	private long archived;
+	private transient File archive;
+
 	/**
 	 * Shows all names the image associated with this TagLog has ever had
 	 *
 	 * @return: A collection of all all names the image has had
 	 */
 	public Collection<String> viewAllTags(){
-		return this.name.keySet();
+		return all().keySet();
 	}
 	/**
-	 * Adds a new name, and the time the name was created to the TagLog
-	 * 
+	 * Adds a new name, and the time the name was created to the TagLog, unless the
+	 * name is already among the newest names. A name that was archived is not looked
+	 * up (that would read the archive on every rename); the archived time is the one
+	 * that counts when the history is read.
+	 *
 	 * @param name: The new name to be added to the TagLog
 	 * @param time: The time this new name was created
 	 */
 	public void addTag(String name, String time){
-		this.name.put(name, time);
+		if(!(this.name.containsKey(name))){
+			this.name.put(name, time);
+		}
 	}
 	/**
 	 * Shows what time a particular name for an image was created
-	 * 
+	 *
 	 * @param name: the name of the image you want to find the creation time of
 	 * @return the time the name was created
 	 */
 	public String getTime(String name){
-		return this.name.get(name);
+		return all().get(name);
 	}
 	/**
 	 * Tells the user if an image has ever had a particular name
-	 * 
+	 *
 	 * @param name: the name to check if the image ever had
 	 * @return true if the image has had this name false if the image has not had this name
 	 */
 	public boolean contains(String name){
-		return this.name.containsKey(name);
+		return this.name.containsKey(name) || all().containsKey(name);
+	}
+	/**
+	 * Gives all names and the time each was created, archived names first.
+	 *
+	 * @return all names and their times
+	 */
+	Map<String, String> history(){
+		return Collections.unmodifiableMap(all());
+	}
+	/**
+	 * Sets the archive the oldest names of this TagLog are kept in.
+	 *
+	 * @param archive: the archive of the directory of the image
+	 */
+	void setArchive(File archive){
+		this.archive = archive;
+	}
+	/**
+	 * Tells whether this TagLog holds enough names for the oldest to be archived.
+	 *
+	 * @return true if the oldest names should be archived
+	 */
+	boolean isFull(){
+		return this.name.size() > HOT_ENTRIES;
 	}
 	/**
-	 * returns a string representation of all names and the associated time the tracked 
+	 * Gives the oldest names of this TagLog: all but the newest HOT_ENTRIES / 2.
+	 *
+	 * @return the oldest names and their times, oldest first
+	 */
+	Map<String, String> oldest(){
+		List<Map.Entry<String, String>> entries = new ArrayList<>(this.name.entrySet());
+		//times sort in the order they were made; names made in the same second keep
+		//the order they were added in
+		Collections.sort(entries, (a, b) -> a.getValue().compareTo(b.getValue()));
+		Map<String, String> oldest = new LinkedHashMap<>();
+		for(Map.Entry<String, String> entry: entries.subList(0, entries.size() - HOT_ENTRIES / 2)){
+			oldest.put(entry.getKey(), entry.getValue());
+		}
+		return oldest;
+	}
+	/**
+	 * Gives where the newest archived names of this TagLog start, plus one.
+	 *
+	 * @return the position of the newest archived names plus one, or 0
+	 */
+	long archived(){
+		return this.archived;
+	}
+	/**
+	 * Forgets names that were written to the archive.
+	 *
+	 * @param names: the names that were archived
+	 * @param offset: where they start in the archive
+	 */
+	void forget(Set<String> names, long offset){
+		this.name.keySet().removeAll(names);
+		this.archived = offset + 1;
+	}
+	/**
+	 * returns a string representation of all names and the associated time the tracked
 	 * image was renamed.
-	 * 
-	 * @return a string representation of all names and the associated time the tracked 
+	 *
+	 * @return a string representation of all names and the associated time the tracked
 	 * image was renamed.
 	 */
 	@Override
 	public String toString(){
-		String s = "";
-		for (String keys: this.name.keySet()){
-			s += String.format("name: %s , time: %s" + "\n", keys, this.name.get(keys));
+		StringBuilder s = new StringBuilder();
+		for (Map.Entry<String, String> entry: all().entrySet()){
+			s.append(String.format("name: %s , time: %s" + "\n", entry.getKey(), entry.getValue()));
+		}
+		return s.toString();
+	}
+	/**
+	 * A helper method which reads a serialized TagLog; the names of a TagLog written
+	 * while they were kept in a HashMap are copied into a LinkedHashMap.
+	 */
+	@SuppressWarnings("unchecked") //the names are always a map of names to times
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		Object names = fields.get("name", null);
+		if(names instanceof LinkedHashMap){
+			this.name = (LinkedHashMap<String, String>) names;
+		}else{
+			this.name = names == null ? new LinkedHashMap<String, String>()
+					: new LinkedHashMap<>((Map<String, String>) names);
+		}
+		this.archived = fields.get("archived", 0L);
+	}
+	/**
+	 * A helper method which gives the whole history: the archived names are read back
+	 * and the newest names are added unless they were archived already.
+	 */
+	private Map<String, String> all(){
+		if(this.archived == 0 || this.archive == null){
+			return this.name;
+		}
+		LinkedHashMap<String, String> all = HistoryArchive.read(this.archive, this.archived);
+		for(Map.Entry<String, String> entry: this.name.entrySet()){
+			if(!(all.containsKey(entry.getKey()))){
+				all.put(entry.getKey(), entry.getValue());
+			}
 		}
-		return s;
+		return all;
 	}
 }
@@ -0,0 +1,165 @@
+package photo_renamer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+
+public class TagRefactoring{
+
+	/**
+	 * A TagRefactoring renames a tag, or merges several tags into one, on every image
+	 * of a library. Only the images carrying one of the old tags are touched: they are
+	 * looked up in the inverted index of the TagStatistics, so the cost depends on how
+	 * many images carry the tags and not on the size of the library. The images are
+	 * retagged with PhotoRenamer.applyTags in batches (one rename per image, in
+	 * parallel, checked for collisions first), and the catalog is saved once per batch
+	 * so it always matches the files.
+	 *
+	 * Before the first rename the refactoring is written to the JOURNAL_FILE of the
+	 * library, and the file is only deleted when every image is done. If the
+	 * refactoring is stopped or the program dies, the journal is still there the next
+	 * time the library is opened and resume finishes the work: images that already
+	 * carry the new tag no longer carry the old ones, so they are not found again.
+	 *
+	 * JOURNAL_FILE: the file in the library holding an unfinished refactoring
+	 * BATCH_SIZE: how many images are retagged (and saved) at a time
+	 *
+	 * renamer: the PhotoRenamer whose images are retagged
+	 */
+	static final String JOURNAL_FILE = ".tag-refactoring";
+	static final int BATCH_SIZE = 512;
+	private PhotoRenamer renamer;
+
+	/**
+	 * Instantiates a TagRefactoring.
+	 *
+	 * @param renamer: the PhotoRenamer whose images are retagged
+	 */
+	TagRefactoring(PhotoRenamer renamer){
+		this.renamer = renamer;
+	}
+	/**
+	 * Replaces the old tags by the new tag on every image carrying any of them. The new
+	 * tag takes the place of the first old tag of an image (or keeps its own place if
+	 * the image already has it), and the other old tags are dropped. Old tags no image
+	 * carries any more are removed from the tag set at the end.
+	 *
+	 * @param to: the new tag
+	 * @param from: the old tags
+	 * @param stop: tells the refactoring to stop after the current batch; the journal
+	 * is kept so it can be resumed
+	 * @return the number of images that were retagged
+	 */
+	public int run(String to, List<String> from, BooleanSupplier stop){
+		List<String> old = new ArrayList<>(new LinkedHashSet<>(from));
+		old.remove(to);
+		if(old.isEmpty()){
+			return 0;
+		}
+		writeJournal(to, old);
+		LinkedHashSet<Image> affected = new LinkedHashSet<>();
+		TagStatistics statistics = renamer.getTagStatistics();
+		for(String tag: old){
+			affected.addAll(statistics.carriers(tag));
+		}
+		List<Image> images = new ArrayList<>(affected);
+		int retagged = 0;
+		for(int start = 0; start < images.size(); start += BATCH_SIZE){
+			if(stop.getAsBoolean()){
+				return retagged;
+			}
+			Map<Image, String[]> batch = new LinkedHashMap<>();
+			for(Image image: images.subList(start, Math.min(images.size(), start + BATCH_SIZE))){
+				batch.put(image, replaced(image.getCurrTags(), to, old));
+			}
+			retagged += batch.size() - renamer.applyTags(batch).size();
+		}
+		for(String tag: old){
+			if(statistics.count(tag) == 0 && Arrays.asList(PhotoRenamer.getTagSet()).contains(tag)){
+				try{
+					PhotoRenamer.deleteFromSet(tag);
+				}catch(TagNotFoundException e){
+					//removed from the set in the meantime
+				}
+			}
+		}
+		journal().delete();
+		return retagged;
+	}
+	/**
+	 * Finishes a refactoring that was stopped or interrupted.
+	 *
+	 * @param stop: tells the refactoring to stop after the current batch
+	 * @return the number of images that were retagged, or -1 if there was nothing to
+	 * resume
+	 */
+	public int resume(BooleanSupplier stop){
+		List<String> pending = pending();
+		if(pending == null){
+			return -1;
+		}
+		return run(pending.get(0), pending.subList(1, pending.size()), stop);
+	}
+	/**
+	 * Gives the unfinished refactoring of the library, if any.
+	 *
+	 * @return the new tag followed by the old tags, or null if there is none
+	 */
+	public List<String> pending(){
+		File journal = journal();
+		if(!(journal.exists())){
+			return null;
+		}
+		try{
+			List<String> lines = Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8);
+			if(lines.isEmpty()){
+				return null;
+			}
+			List<String> tags = Arrays.asList(lines.get(0).split("\t"));
+			return tags.size() < 2 ? null : Collections.unmodifiableList(tags);
+		}catch(IOException e){
+			System.out.println("could not read the tag refactoring journal");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	/**
+	 * A helper method which gives the tags of an image with the old tags replaced.
+	 */
+	static String[] replaced(String[] tags, String to, List<String> old){
+		List<String> result = new ArrayList<>();
+		boolean placed = false;
+		for(String tag: tags){
+			if(tag.equals(to) || old.contains(tag)){
+				if(!(placed)){
+					result.add(to);
+					placed = true;
+				}
+			}else{
+				result.add(tag);
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+	private void writeJournal(String to, List<String> old){
+		try{
+			Files.write(journal().toPath(), (to + "\t" + String.join("\t", old) + "\n").getBytes(StandardCharsets.UTF_8));
+		}catch(IOException e){
+			//the refactoring still runs, it just can not be resumed
+			System.out.println("could not write the tag refactoring journal");
+			e.printStackTrace();
+		}
+	}
+	private File journal(){
+		return new File(renamer.getDirectory(), JOURNAL_FILE);
+	}
+}
@@ -0,0 +1,15 @@
+package photo_renamer;
+
+public interface TagRule{
+
+	/**
+	 * A TagRule turns the header of an image into a tag, so images can be tagged
+	 * automatically by the AutoTagger. Rules are called from several threads at once
+	 * and should not keep state.
+	 *
+	 * @param header: the header of the image
+	 * @return the tag for the image (starting with "@" and containing no other "@"
+	 * or "."), or null if the rule does not apply to this image
+	 */
+	String tagFor(ImageHeader header);
+}
@@ -0,0 +1,171 @@
+package photo_renamer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+
+public class TagStatistics{
+
+	/**
+	 * TagStatistics keeps, for the images of one PhotoRenamer, which images carry
+	 * each tag and how many images carry each pair of tags together. It is built once
+	 * when the images are loaded and then updated on every change of the tags of an
+	 * image, at a cost that only depends on the number of tags on that image, so
+	 * questions about tag use are answered without walking the images.
+	 *
+	 * counts: the number of images carrying each tag
+	 *
+	 * carriers: the images carrying each tag (an inverted index, so the images with a
+	 * tag are found without walking all images)
+	 *
+	 * coOccurrences: for each tag, the number of images carrying it together with each
+	 * other tag (sparse: pairs that never occur together are not stored)
+	 */
+	private final HashMap<String, Integer> counts = new HashMap<>();
+	private final HashMap<String, LinkedHashSet<Image>> carriers = new HashMap<>();
+	private final HashMap<String, HashMap<String, Integer>> coOccurrences = new HashMap<>();
+
+	/**
+	 * Records that the tags of an image changed. Tags are counted once per image even
+	 * if an image carries a tag twice.
+	 *
+	 * @param image: the image whose tags changed
+	 * @param before: the tags of the image before the change (empty for a new image)
+	 * @param after: the tags of the image after the change
+	 */
+	public synchronized void update(Image image, String[] before, String[] after){
+		LinkedHashSet<String> tags = new LinkedHashSet<>(Arrays.asList(before));
+		LinkedHashSet<String> wanted = new LinkedHashSet<>(Arrays.asList(after));
+		for(String tag: new ArrayList<>(tags)){
+			if(!(wanted.contains(tag))){
+				tags.remove(tag);
+				change(counts, tag, -1);
+				LinkedHashSet<Image> images = carriers.get(tag);
+				if(images != null){
+					images.remove(image);
+					if(images.isEmpty()){
+						carriers.remove(tag);
+					}
+				}
+				for(String other: tags){
+					changePair(tag, other, -1);
+				}
+			}
+		}
+		for(String tag: wanted){
+			if(tags.add(tag)){
+				change(counts, tag, 1);
+				LinkedHashSet<Image> images = carriers.get(tag);
+				if(images == null){
+					images = new LinkedHashSet<>();
+					carriers.put(tag, images);
+				}
+				images.add(image);
+				for(String other: tags){
+					if(!(other.equals(tag))){
+						changePair(tag, other, 1);
+					}
+				}
+			}
+		}
+	}
+	/**
+	 * Gives the number of images carrying the given tag.
+	 *
+	 * @param tag: the tag
+	 * @return the number of images carrying the tag
+	 */
+	public synchronized int count(String tag){
+		Integer count = counts.get(tag);
+		return count == null ? 0 : count;
+	}
+	/**
+	 * Gives the images carrying the given tag.
+	 *
+	 * @param tag: the tag
+	 * @return the images carrying the tag, in the order they got it
+	 */
+	public synchronized List<Image> carriers(String tag){
+		LinkedHashSet<Image> images = carriers.get(tag);
+		return images == null ? new ArrayList<Image>() : new ArrayList<>(images);
+	}
+	/**
+	 * Gives the number of images carrying each tag that is used at all, most used
+	 * first.
+	 *
+	 * @return the tags and their counts
+	 */
+	public synchronized Map<String, Integer> counts(){
+		return sorted(counts);
+	}
+	/**
+	 * Gives the tags that occur together with the given tag and on how many images
+	 * they do, most frequent first.
+	 *
+	 * @param tag: the tag
+	 * @return the tags occurring with the tag and their counts
+	 */
+	public synchronized Map<String, Integer> coOccurring(String tag){
+		HashMap<String, Integer> row = coOccurrences.get(tag);
+		return row == null ? new LinkedHashMap<String, Integer>() : sorted(row);
+	}
+	/**
+	 * Gives the tags of the given tag set that no image carries.
+	 *
+	 * @param tagSet: the tag set
+	 * @return the unused tags, in the order of the tag set
+	 */
+	public synchronized List<String> unused(String[] tagSet){
+		List<String> unused = new ArrayList<>();
+		for(String tag: tagSet){
+			if(!(counts.containsKey(tag))){
+				unused.add(tag);
+			}
+		}
+		return unused;
+	}
+	private void changePair(String tag, String other, int delta){
+		change(row(tag), other, delta);
+		change(row(other), tag, delta);
+		if(coOccurrences.get(tag).isEmpty()){
+			coOccurrences.remove(tag);
+		}
+		if(coOccurrences.get(other).isEmpty()){
+			coOccurrences.remove(other);
+		}
+	}
+	private HashMap<String, Integer> row(String tag){
+		HashMap<String, Integer> row = coOccurrences.get(tag);
+		if(row == null){
+			row = new HashMap<>();
+			coOccurrences.put(tag, row);
+		}
+		return row;
+	}
+	private static void change(HashMap<String, Integer> map, String key, int delta){
+		Integer value = map.get(key);
+		int changed = (value == null ? 0 : value) + delta;
+		if(changed <= 0){
+			map.remove(key);
+		}else{
+			map.put(key, changed);
+		}
+	}
+	private static Map<String, Integer> sorted(Map<String, Integer> map){
+		List<Map.Entry<String, Integer>> entries = new ArrayList<>(map.entrySet());
+		Collections.sort(entries, (a, b) -> {
+			int byCount = Integer.compare(b.getValue(), a.getValue());
+			return byCount != 0 ? byCount : a.getKey().compareTo(b.getKey());
+		});
+		Map<String, Integer> result = new LinkedHashMap<>();
+		for(Map.Entry<String, Integer> entry: entries){
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,246 @@
+package photo_renamer;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+
+public class TaskRunner{
+
+	/**
+	 * The TaskRunner runs calls to the back-end off the Swing event thread so the GUI
+	 * stays responsive. Tasks run one at a time on a single background thread: every
+	 * call to the PhotoRenamer is synchronized, but a task is made of many calls (e.g.
+	 * a batch of renames after a search) that must not interleave with those of
+	 * another task. Tasks report their progress in a progress bar and can be cancelled
+	 * with the cancel button; long tasks check for cancellation between batches, so a
+	 * cancelled task keeps running until its current batch is done, and the busy
+	 * components stay disabled until it has really stopped. Text a task publishes is
+	 * handed to the event thread in chunks (SwingWorker coalesces them).
+	 *
+	 * worker: the single thread tasks run on
+	 * progressBar: shows the progress of the running task
+	 * cancel: cancels the running task
+	 * busy: components that are disabled while a task runs
+	 * current: the running task, or null
+	 * unfinished: how many tasks were started and have not stopped yet
+	 */
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "PhotoRenamer task");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final JProgressBar progressBar = new JProgressBar(0, 100);
+	private final JButton cancel = new JButton("Cancel");
+	private final JComponent[] busy;
+	private Worker<?> current;
+	private int unfinished = 0;
+
+	/**
+	 * A piece of back-end work run by the TaskRunner.
+	 *
+	 * @param <R> the result of the work
+	 */
+	interface Task<R>{
+		R run(Progress progress) throws Exception;
+	}
+	/**
+	 * What a running task uses to report progress, publish text and check whether it
+	 * was cancelled.
+	 */
+	interface Progress{
+		void setProgress(int done, int total);
+		void publish(String chunk);
+		boolean isCancelled();
+	}
+	/**
+	 * Something done with every item of a list; see forEachInBatches.
+	 *
+	 * @param <T> the type of the items
+	 */
+	interface ItemAction<T>{
+		void apply(T item) throws Exception;
+	}
+
+	/**
+	 * Instantiates a TaskRunner.
+	 *
+	 * @param busy: the components to disable while a task runs
+	 */
+	TaskRunner(JComponent... busy){
+		this.busy = busy;
+		progressBar.setStringPainted(true);
+		progressBar.setString("");
+		cancel.setEnabled(false);
+		cancel.addActionListener(e -> {
+			Worker<?> cancelled = current;
+			if(cancelled != null){
+				cancel.setEnabled(false);
+				progressBar.setString(cancelled.description + " - cancelling");
+				cancelled.cancel(false);
+			}
+		});
+	}
+	public JProgressBar getProgressBar(){
+		return progressBar;
+	}
+	public JButton getCancelButton(){
+		return cancel;
+	}
+	/**
+	 * Runs a task in the background. Must be called on the event thread.
+	 *
+	 * @param description: what the task does, shown in the progress bar
+	 * @param task: the work to do in the background
+	 * @param chunks: receives the text the task publishes on the event thread, or null
+	 * @param done: receives the result on the event thread when the task succeeds, or null
+	 */
+	public <R> void run(String description, Task<R> task, Consumer<String> chunks, Consumer<R> done){
+		Worker<R> next = new Worker<>(description, task, chunks, done);
+		current = next;
+		unfinished++;
+		for(JComponent component: busy){
+			component.setEnabled(false);
+		}
+		cancel.setEnabled(true);
+		progressBar.setIndeterminate(true);
+		progressBar.setString(description);
+		next.addPropertyChangeListener(e -> {
+			if("progress".equals(e.getPropertyName())){
+				progressBar.setIndeterminate(false);
+				progressBar.setValue((Integer) e.getNewValue());
+			}
+		});
+		worker.execute(next);
+	}
+	/**
+	 * Does an action for every item of a list in batches, reporting progress after
+	 * every batch and stopping between batches if the task was cancelled. Each batch
+	 * is one batch of the PhotoRenamer, so the catalog is saved once per batch and is
+	 * consistent when the task stops.
+	 *
+	 * @param renamer: the PhotoRenamer the items belong to
+	 * @param items: the items
+	 * @param batchSize: how many items make up a batch
+	 * @param progress: the progress of the running task
+	 * @param action: what to do with each item
+	 * @return the number of items done
+	 * @throws Exception: the first exception thrown by the action
+	 */
+	static <T> int forEachInBatches(PhotoRenamer renamer, List<T> items, int batchSize, Progress progress,
+			ItemAction<T> action) throws Exception{
+		int done = 0;
+		while(done < items.size() && !(progress.isCancelled())){
+			int end = Math.min(items.size(), done + batchSize);
+			renamer.beginBatch();
+			try{
+				for(T item: items.subList(done, end)){
+					action.apply(item);
+				}
+			}finally{
+				renamer.endBatch();
+			}
+			done = end;
+			progress.setProgress(done, items.size());
+		}
+		return done;
+	}
+
+	/**
+	 * The SwingWorker running one task.
+	 */
+	private class Worker<R> extends SwingWorker<R, String> implements Progress{
+		//set by whichever comes first: the task starting, or a cancellation before it
+		//started (then the task never runs)
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private final String description;
+		private final Task<R> task;
+		private final Consumer<String> chunks;
+		private final Consumer<R> done;
+
+		Worker(String description, Task<R> task, Consumer<String> chunks, Consumer<R> done){
+			this.description = description;
+			this.task = task;
+			this.chunks = chunks;
+			this.done = done;
+		}
+		@Override
+		protected R doInBackground() throws Exception{
+			if(!(claimed.compareAndSet(false, true))){
+				return null;
+			}
+			try{
+				return task.run(this);
+			}finally{
+				//done() is called as soon as the task is cancelled, so the components
+				//are only enabled again once the task has returned
+				SwingUtilities.invokeLater(this::finished);
+			}
+		}
+		@Override
+		public void setProgress(int finished, int total){
+			setProgress(total == 0 ? 100 : (int) (100L * finished / total));
+		}
+		@Override
+		public void publish(String chunk){
+			super.publish(chunk);
+		}
+		@Override
+		protected void process(List<String> published){
+			if(chunks != null){
+				chunks.accept(String.join("", published));
+			}
+		}
+		/**
+		 * Enables the busy components again once no task is running any more.
+		 */
+		private void finished(){
+			unfinished--;
+			if(current == this){
+				current = null;
+			}
+			if(unfinished == 0){
+				for(JComponent component: busy){
+					component.setEnabled(true);
+				}
+				cancel.setEnabled(false);
+				progressBar.setIndeterminate(false);
+			}
+			if(isCancelled()){
+				progressBar.setString(description + " - cancelled");
+			}
+		}
+		@Override
+		protected void done(){
+			if(isCancelled()){
+				if(claimed.compareAndSet(false, true)){
+					finished();
+				}
+				return;
+			}
+			try{
+				R result = get();
+				progressBar.setValue(100);
+				progressBar.setString(description + " - done");
+				if(done != null){
+					done.accept(result);
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}catch(ExecutionException e){
+				progressBar.setString(description + " - failed");
+				JOptionPane.showMessageDialog(progressBar.getTopLevelAncestor(), "Something Went Wrong: "
+						+ e.getCause().getMessage());
+				e.getCause().printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package photo_renamer;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JViewport;
+import javax.swing.ListModel;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+
+public class ThumbnailGrid extends JList<Image>{
+
+	/**
+	 * The ThumbnailGrid shows the images of a list model as a grid of thumbnails. Like
+	 * any JList it only paints the tiles that are visible, and all tiles are painted
+	 * by one recycled renderer, so a folder of any size scrolls as fast as one screen
+	 * of tiles. The renderer never decodes: it shows the thumbnail if it is cached and
+	 * a blank tile otherwise. Whenever the visible part changes, the thumbnails of the
+	 * visible rows and of PREFETCH_ROWS rows above and below are queued on a small pool
+	 * of decoder threads (visible rows first), and queued decodes for rows that
+	 * scrolled out of that range are cancelled. Decoded thumbnails are kept in a
+	 * bounded cache (least recently used ones are dropped).
+	 *
+	 * The grid can share its selection model with another list of the same model, so
+	 * images selected in the grid are the images the tag operations work on.
+	 *
+	 * All state is only touched on the event thread; decoder threads only decode.
+	 *
+	 * serialVersionUID: generated so this class can be serialized
+	 * TILE: the width and height of a thumbnail
+	 * PREFETCH_ROWS: how many rows outside the visible part are decoded ahead
+	 * DECODERS: the number of decoder threads
+	 * CACHED: the number of thumbnails kept
+	 *
+	 * decoders: decode thumbnails, queued decodes run in the order they were asked for
+	 * thumbnails: the cached thumbnails, least recently used first
+	 * pending: the queued or running decode of every image that is not cached yet
+	 * scrolled: updates the decodes when the viewport scrolls; it is added to the
+	 * viewport the grid is shown in and removed again when the grid is taken out
+	 * viewport: the viewport the grid is shown in, or null
+	 */
+	private static final long serialVersionUID = 4791123856350923518L;
+	static final int TILE = 96;
+	static final int PREFETCH_ROWS = 2;
+	static final int DECODERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	static final int CACHED = 600;
+	private final transient ThreadPoolExecutor decoders = new ThreadPoolExecutor(DECODERS, DECODERS, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), r -> {
+				Thread thread = new Thread(r, "thumbnail decoder");
+				thread.setDaemon(true);
+				return thread;
+			});
+	private final transient LinkedHashMap<Image, ImageIcon> thumbnails = new LinkedHashMap<Image, ImageIcon>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Image, ImageIcon> eldest){
+			return size() > CACHED;
+		}
+	};
+	private final transient HashMap<Image, Future<?>> pending = new HashMap<>();
+	private final transient ChangeListener scrolled = e -> update();
+	private transient JViewport viewport;
+
+	/**
+	 * Instantiates a ThumbnailGrid.
+	 *
+	 * @param model: the images to show
+	 * @param selection: the selection model to use (shared with another list of the same model)
+	 */
+	ThumbnailGrid(ListModel<Image> model, ListSelectionModel selection){
+		super(model);
+		setSelectionModel(selection);
+		setLayoutOrientation(JList.HORIZONTAL_WRAP);
+		setVisibleRowCount(-1);
+		//fixed tiles, so the list never asks the renderer to measure every image
+		setFixedCellWidth(TILE + 8);
+		setFixedCellHeight(TILE + 24);
+		setCellRenderer(new Tile());
+		decoders.allowCoreThreadTimeOut(true);
+		model.addListDataListener(new ListDataListener(){
+			@Override
+			public void intervalAdded(ListDataEvent e){
+				update();
+			}
+			@Override
+			public void intervalRemoved(ListDataEvent e){
+				update();
+			}
+			@Override
+			public void contentsChanged(ListDataEvent e){
+				update();
+			}
+		});
+	}
+	@Override
+	public void addNotify(){
+		super.addNotify();
+		if(viewport == null && getParent() instanceof JViewport){
+			viewport = (JViewport) getParent();
+			viewport.addChangeListener(scrolled);
+		}
+	}
+	@Override
+	public void removeNotify(){
+		if(viewport != null){
+			viewport.removeChangeListener(scrolled);
+			viewport = null;
+		}
+		super.removeNotify();
+	}
+	/**
+	 * Queues the decodes of the visible rows and the rows around them and cancels
+	 * the queued decodes of all other rows. Must be called on the event thread.
+	 */
+	void update(){
+		int first = getFirstVisibleIndex();
+		int last = getLastVisibleIndex();
+		if(first < 0){
+			return;
+		}
+		int columns = Math.max(1, getVisibleRect().width / getFixedCellWidth());
+		int from = Math.max(0, first - PREFETCH_ROWS * columns);
+		int to = Math.min(getModel().getSize() - 1, last + PREFETCH_ROWS * columns);
+		HashMap<Image, Boolean> wanted = new HashMap<>();
+		for(int i = from; i <= to; i++){
+			wanted.put(getModel().getElementAt(i), true);
+		}
+		for(Iterator<Map.Entry<Image, Future<?>>> it = pending.entrySet().iterator(); it.hasNext();){
+			Map.Entry<Image, Future<?>> decode = it.next();
+			if(!(wanted.containsKey(decode.getKey()))){
+				decode.getValue().cancel(false);
+				decoders.remove((Runnable) decode.getValue());
+				it.remove();
+			}
+		}
+		//the visible tiles first, then the rows below and above
+		for(int i = first; i <= last; i++){
+			request(getModel().getElementAt(i));
+		}
+		for(int i = last + 1; i <= to; i++){
+			request(getModel().getElementAt(i));
+		}
+		for(int i = first - 1; i >= from; i--){
+			request(getModel().getElementAt(i));
+		}
+	}
+	/**
+	 * Stops all decodes and the decoder threads, once the window of the grid is
+	 * closed.
+	 */
+	void shutdown(){
+		decoders.shutdownNow();
+	}
+	/**
+	 * A helper method which queues the decode of one thumbnail unless it is cached
+	 * or queued already.
+	 */
+	private void request(Image image){
+		if(thumbnails.containsKey(image) || pending.containsKey(image)){
+			return;
+		}
+		pending.put(image, decoders.submit(() -> {
+			ImageIcon thumbnail = thumbnail(image);
+			SwingUtilities.invokeLater(() -> {
+				if(pending.remove(image) != null){
+					thumbnails.put(image, thumbnail);
+					repaint();
+				}
+			});
+		}));
+	}
+	/**
+	 * A helper method which decodes the thumbnail of an image on a decoder thread; an
+	 * image that can not be decoded gets an empty thumbnail so it is not tried again.
+	 */
+	private static ImageIcon thumbnail(Image image){
+		try{
+			BufferedImage picture = PerceptualHash.decode(image.getImage(), TILE);
+			double scale = Math.min((double) TILE / picture.getWidth(), (double) TILE / picture.getHeight());
+			int width = Math.max(1, (int) (picture.getWidth() * scale));
+			int height = Math.max(1, (int) (picture.getHeight() * scale));
+			BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = tile.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(picture, 0, 0, width, height, null);
+			g.dispose();
+			return new ImageIcon(tile);
+		}catch(IOException | RuntimeException e){
+			return new ImageIcon(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
+		}
+	}
+
+	/**
+	 * Paints every tile: the cached thumbnail (or nothing yet) above the name.
+	 */
+	private class Tile extends DefaultListCellRenderer{
+		private static final long serialVersionUID = -5326012879146120473L;
+
+		Tile(){
+			setHorizontalAlignment(SwingConstants.CENTER);
+			setVerticalTextPosition(SwingConstants.BOTTOM);
+			setHorizontalTextPosition(SwingConstants.CENTER);
+			setPreferredSize(new Dimension(TILE + 8, TILE + 24));
+		}
+		@Override
+		public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+				boolean cellHasFocus){
+			JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+			label.setIcon(thumbnails.get(value));
+			return label;
+		}
+	}
+}